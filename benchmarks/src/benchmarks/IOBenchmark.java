@@ -0,0 +1,31 @@
+package benchmarks;
+
+import emulator.Solution;
+import game.Level;
+import game.Step;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading levels from a dat file and solutions from a tws file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IOBenchmark {
+
+    @Benchmark
+    public Level parseLevel(LevelFixture f) throws IOException {
+        return f.dat.parseLevel(f.levelNumber, 0, Step.EVEN);
+    }
+
+    @Benchmark
+    public Solution readSolution(LevelFixture f) throws IOException {
+        return f.tws.readSolution(f.level);
+    }
+
+}
@@ -0,0 +1,41 @@
+package benchmarks;
+
+import game.Level;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The tick rate of the emulator. tick reports the time per tick, playing the
+ * whole solution of each fixture level from its starting state.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LevelBenchmark {
+
+    @Benchmark
+    @OperationsPerInvocation(LevelFixture.HALF_MOVES)
+    public Level tick(LevelFixture f) {
+        Level level = f.level;
+        level.load(f.startState);
+        for (int i = 0; i < LevelFixture.HALF_MOVES; i++) level.tick(f.solution.halfMoves[i], f.directions[i]);
+        return level;
+    }
+
+    /**
+     * Play the solution through Solution.loadMoves, which is what the
+     * headless verifier uses. Reports the time for the whole solution.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Level loadMoves(LevelFixture f) {
+        Level level = f.level;
+        level.load(f.startState);
+        f.solution.loadMoves(level);
+        return level;
+    }
+
+}
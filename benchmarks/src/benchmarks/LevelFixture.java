@@ -0,0 +1,290 @@
+package benchmarks;
+
+import emulator.Solution;
+import game.Direction;
+import game.Level;
+import game.Step;
+import io.DatParser;
+import io.TWSReader;
+import io.TWSWriter;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A synthetic levelset and solution, so that the benchmarks do not need any
+ * files. The levelset has one level for each LevelType, which is generated
+ * from a fixed seed and written to a temporary directory together with a tws
+ * file for its solution.
+ * <p>
+ * Chip walks up and down the top row, which is walled off from the rest of
+ * the level, so he never dies and every solution plays for exactly
+ * HALF_MOVES ticks.
+ * </p>
+ */
+@State(Scope.Benchmark)
+public class LevelFixture {
+
+    public static final int HALF_MOVES = 1200;
+    private static final int CORRIDOR_LENGTH = 30;
+
+    public enum LevelType {
+        MONSTERS,       // Lots of walking monsters
+        SLIDING,        // Ice, force floors, blocks and gliders
+        BUTTONS         // Clone machines, traps, toggle doors and tanks
+    }
+
+    @Param({"MONSTERS", "SLIDING", "BUTTONS"})
+    public LevelType levelType;
+
+    public File directory;
+    public DatParser dat;
+    public TWSReader tws;
+    public int levelNumber;
+    public Solution solution;
+    public Direction[][] directions;
+
+    // The level in its starting state, and savestates at the start, middle
+    // and end of the solution
+    public Level level;
+    public byte[] startState;
+    public byte[] middleState;
+    public byte[] endState;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("supercc-bench").toFile();
+        File datFile = new File(directory, "bench.dat");
+        Files.write(datFile.toPath(), levelset());
+        dat = new DatParser(datFile);
+        levelNumber = levelType.ordinal() + 1;
+
+        solution = new Solution(moves(), 0x12345678, Step.EVEN, Solution.HALF_MOVES);
+        directions = new Direction[HALF_MOVES][];
+        for (int i = 0; i < HALF_MOVES; i++) {
+            switch (solution.halfMoves[i]) {
+                case Level.RIGHT: directions[i] = new Direction[] {Direction.RIGHT}; break;
+                case Level.LEFT: directions[i] = new Direction[] {Direction.LEFT}; break;
+                default: directions[i] = new Direction[] {};
+            }
+        }
+
+        level = dat.parseLevel(levelNumber, solution.rngSeed, solution.step);
+        File twsFile = new File(directory, "bench.tws");
+        TWSWriter.write(twsFile, level, solution);
+        tws = new TWSReader(twsFile);
+
+        startState = level.save();
+        for (int i = 0; i < HALF_MOVES; i++) {
+            level.tick(solution.halfMoves[i], directions[i]);
+            if (i == HALF_MOVES / 2) middleState = level.save();
+        }
+        endState = level.save();
+        level.load(startState);
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        directory.delete();
+    }
+
+    private static byte[] moves() {
+        byte[] moves = new byte[HALF_MOVES];
+        for (int i = 0; i < HALF_MOVES; i += 2) {
+            boolean right = (i / 2) % (2 * CORRIDOR_LENGTH) < CORRIDOR_LENGTH;
+            moves[i] = right ? Level.RIGHT : Level.LEFT;
+            moves[i + 1] = Level.WAIT;
+        }
+        return moves;
+    }
+
+    /**
+     * @return A dat file containing one level of each LevelType, in order
+     */
+    static byte[] levelset() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeInt32(out, 0x0002AAAC);
+        writeWord(out, LevelType.values().length);
+        for (LevelType type : LevelType.values()) {
+            byte[] level = new LevelBuilder(type.ordinal() + 1, new Random(type.ordinal())).build(type);
+            writeWord(out, level.length);
+            out.write(level, 0, level.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeWord(ByteArrayOutputStream out, int word) {
+        out.write(word);
+        out.write(word >> 8);
+    }
+
+    private static void writeInt32(ByteArrayOutputStream out, int i) {
+        writeWord(out, i);
+        writeWord(out, i >> 16);
+    }
+
+    private static class LevelBuilder {
+
+        private static final int WALL = 0x01, ICE = 0x0C, FF_DOWN = 0x0D, BLOCK = 0x0A, FF_UP = 0x12,
+            FF_RANDOM = 0x32, EXIT = 0x15, TOGGLE_CLOSED = 0x25, TOGGLE_OPEN = 0x26, BUTTON_GREEN = 0x23,
+            BUTTON_RED = 0x24, BUTTON_BROWN = 0x27, BUTTON_BLUE = 0x28, TELEPORT = 0x29, TRAP = 0x2B,
+            CLONE_MACHINE = 0x31, BUG_UP = 0x40, FIREBALL_UP = 0x44, BALL_UP = 0x48, TANK_UP = 0x4C,
+            GLIDER_UP = 0x50, CHIP_DOWN = 0x6E;
+        private static final int MAX_MONSTERS = 127, MAX_TRAPS = 25, MAX_CLONERS = 31;
+
+        private final int levelNumber;
+        private final Random random;
+        private final byte[] layerFG = new byte[32 * 32], layerBG = new byte[32 * 32];
+        private final List<Integer> monsters = new ArrayList<>();
+        private final List<int[]> traps = new ArrayList<>(), cloners = new ArrayList<>();
+
+        /**
+         * Put a terrain tile under whatever is at position.
+         */
+        private void setTerrain(int position, int tile) {
+            if (layerFG[position] >= BUG_UP) layerBG[position] = (byte) tile;
+            else layerFG[position] = (byte) tile;
+        }
+
+        private void addMonster(int position, int firstTile, int numTypes) {
+            if (monsters.size() == MAX_MONSTERS || layerFG[position] >= BUG_UP
+                || layerFG[position] == WALL || layerFG[position] == BLOCK) return;
+            layerBG[position] = layerFG[position];
+            layerFG[position] = (byte) (firstTile + 4 * random.nextInt(numTypes) + random.nextInt(4));
+            monsters.add(position);
+        }
+
+        private int randomPosition() {
+            return 2 * 32 + random.nextInt(30 * 32);
+        }
+
+        private void monsters() {
+            for (int i = 2 * 32; i < 32 * 32; i++) {
+                if (random.nextDouble() < 0.15) layerFG[i] = WALL;
+                else if (random.nextDouble() < 0.15) addMonster(i, BUG_UP, 9);
+            }
+        }
+
+        private void sliding() {
+            for (int i = 2 * 32; i < 32 * 32; i++) {
+                double r = random.nextDouble();
+                if (r < 0.25) layerFG[i] = ICE;
+                else if (r < 0.30) layerFG[i] = (byte) (0x1A + random.nextInt(4));        // Ice corners
+                else if (r < 0.40) layerFG[i] = (byte) (FF_DOWN + random.nextInt(2) * (FF_UP - FF_DOWN));
+                else if (r < 0.50) layerFG[i] = (byte) (FF_UP + 1 + random.nextInt(2));   // Force floors right and left
+                else if (r < 0.52) layerFG[i] = FF_RANDOM;
+                else if (r < 0.53) layerFG[i] = TELEPORT;
+                else if (r < 0.60) layerFG[i] = WALL;
+                else if (r < 0.66) layerFG[i] = BLOCK;
+            }
+            for (int i = 0; i < 60; i++) addMonster(randomPosition(), GLIDER_UP, 1);
+            for (int i = 0; i < 30; i++) addMonster(randomPosition(), BALL_UP, 1);
+            for (int i = 0; i < 20; i++) addMonster(randomPosition(), FIREBALL_UP, 1);
+        }
+
+        private void buttons() {
+            for (int i = 2 * 32; i < 32 * 32; i++) {
+                double r = random.nextDouble();
+                if (r < 0.10) layerFG[i] = WALL;
+                else if (r < 0.14) layerFG[i] = TOGGLE_CLOSED;
+                else if (r < 0.18) layerFG[i] = TOGGLE_OPEN;
+                else if (r < 0.21) layerFG[i] = BUTTON_GREEN;
+                else if (r < 0.24) layerFG[i] = BUTTON_BLUE;
+            }
+            for (int i = 0; i < MAX_TRAPS; i++) {
+                int button = randomPosition(), trap = randomPosition();
+                if (button == trap || layerFG[button] >= BUG_UP) continue;
+                layerFG[button] = BUTTON_BROWN;
+                setTerrain(trap, TRAP);
+                traps.add(new int[] {button, trap});
+            }
+            for (int i = 0; i < MAX_CLONERS; i++) {
+                int button = randomPosition(), cloner = randomPosition();
+                if (button == cloner || layerFG[button] >= BUG_UP || layerFG[cloner] >= BUG_UP) continue;
+                layerFG[button] = BUTTON_RED;
+                layerFG[cloner] = CLONE_MACHINE;
+                addMonster(cloner, BALL_UP, 1);
+                cloners.add(new int[] {button, cloner});
+            }
+            for (int i = 0; i < 40; i++) addMonster(randomPosition(), TANK_UP, 1);
+            for (int i = 0; i < 40; i++) addMonster(randomPosition(), BALL_UP, 1);
+        }
+
+        byte[] build(LevelType type) {
+            // Chip's corridor in the top row
+            for (int i = 32; i < 2 * 32; i++) layerFG[i] = WALL;
+            layerFG[0] = CHIP_DOWN;
+            layerFG[31] = EXIT;
+            switch (type) {
+                case MONSTERS: monsters(); break;
+                case SLIDING: sliding(); break;
+                case BUTTONS: buttons(); break;
+            }
+
+            ByteArrayOutputStream fields = new ByteArrayOutputStream();
+            byte[] title = (type.name() + "\0").getBytes();
+            fields.write(3);
+            fields.write(title.length);
+            fields.write(title, 0, title.length);
+            if (!traps.isEmpty()) {
+                fields.write(4);
+                fields.write(10 * traps.size());
+                for (int[] c : traps) writeConnection(fields, c, true);
+            }
+            if (!cloners.isEmpty()) {
+                fields.write(5);
+                fields.write(8 * cloners.size());
+                for (int[] c : cloners) writeConnection(fields, c, false);
+            }
+            byte[] password = new byte[] {'B', 'N', 'C', (byte) ('A' + levelNumber), 0};
+            fields.write(6);
+            fields.write(password.length);
+            for (byte b : password) fields.write(b ^ 0x99);
+            fields.write(10);
+            fields.write(2 * monsters.size());
+            for (int position : monsters) {
+                fields.write(position & 0b11111);
+                fields.write(position >>> 5);
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeWord(out, levelNumber);
+            writeWord(out, 0);                                  // Time limit
+            writeWord(out, 0);                                  // Chips
+            writeWord(out, 1);                                  // Map detail
+            writeWord(out, layerFG.length);
+            out.write(layerFG, 0, layerFG.length);
+            writeWord(out, layerBG.length);
+            out.write(layerBG, 0, layerBG.length);
+            writeWord(out, fields.size());
+            out.write(fields.toByteArray(), 0, fields.size());
+            return out.toByteArray();
+        }
+
+        private static void writeConnection(ByteArrayOutputStream out, int[] connection, boolean trap) {
+            writeWord(out, connection[0] & 0b11111);
+            writeWord(out, connection[0] >>> 5);
+            writeWord(out, connection[1] & 0b11111);
+            writeWord(out, connection[1] >>> 5);
+            if (trap) writeWord(out, 0);
+        }
+
+        LevelBuilder(int levelNumber, Random random) {
+            this.levelNumber = levelNumber;
+            this.random = random;
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+package benchmarks;
+
+import emulator.SavestateCodec;
+import emulator.SavestateManager;
+import game.Direction;
+import game.Level;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing, loading and compressing savestates, which happens on every tick
+ * while playing in the GUI. All benchmarks use the savestate from the middle
+ * of the fixture solution.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SaveStateBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class States {
+        byte[] compressedState;
+        byte[] nextState;               // The savestate one tick after the middle state
+
+        @Setup
+        public void setup(LevelFixture f) {
+            compressedState = SavestateCodec.RLE.encode(f.middleState, null);
+            f.level.load(f.middleState);
+            f.level.tick(Level.WAIT, new Direction[] {});
+            nextState = f.level.save();
+            f.level.load(f.middleState);
+        }
+    }
+
+    // States leaves the level in the middle state
+    @Benchmark
+    public byte[] save(LevelFixture f, States s) {
+        return f.level.save();
+    }
+
+    /**
+     * What a search does instead of save() to check if a state is new.
+     */
+    @Benchmark
+    public long stateHash(LevelFixture f, States s) {
+        return f.level.getStateHash();
+    }
+
+    @Benchmark
+    public Level load(LevelFixture f) {
+        f.level.load(f.middleState);
+        return f.level;
+    }
+
+    /**
+     * Branching from the middle state without a savestate, the alternative
+     * to load. The first tick after it includes copying the layers.
+     */
+    @Benchmark
+    public Level fork(LevelFixture f, States s) {
+        return f.level.fork();
+    }
+    
+    @Benchmark
+    public Level forkAndTick(LevelFixture f, States s) {
+        Level level = f.level.fork();
+        level.tick(Level.WAIT, new Direction[] {});
+        return level;
+    }
+    
+    @Benchmark
+    public Level loadAndTick(LevelFixture f) {
+        f.level.load(f.middleState);
+        f.level.tick(Level.WAIT, new Direction[] {});
+        return f.level;
+    }
+    
+    /**
+     * The work done by SavestateCompressor for each savestate.
+     */
+    @Benchmark
+    public byte[] compress(LevelFixture f) {
+        return SavestateCodec.RLE.encode(f.middleState, null);
+    }
+
+    @Benchmark
+    public byte[] decompress(States s) {
+        return SavestateCodec.RLE.decode(s.compressedState, null);
+    }
+
+    /**
+     * Storing a rewind state as a delta to the state one tick earlier.
+     */
+    @Benchmark
+    public byte[] encodeDelta(LevelFixture f, States s) {
+        return SavestateManager.getDeltaCodec().encode(s.nextState, f.middleState);
+    }
+
+}
@@ -0,0 +1,18 @@
+/**
+ * JMH benchmarks for the emulator. They use the synthetic levels of
+ * LevelFixture, so no levelset or tws file is needed.
+ * <p>
+ * To run them, compile SuperCC first, then compile this directory with
+ * jmh-core and jmh-generator-annprocess on the classpath, which generates
+ * the benchmark harness:
+ * </p>
+ * <pre>
+ * javac -cp out:jmh/* -d benchmarks/out $(find benchmarks/src -name "*.java")
+ * java -cp benchmarks/out:out:jmh/* org.openjdk.jmh.Main [regex] [-p levelType=MONSTERS]
+ * </pre>
+ * <p>
+ * LevelBenchmark.tick is the number to watch for changes to the emulator
+ * itself; it reports the time per tick.
+ * </p>
+ */
+package benchmarks;
@@ -0,0 +1,69 @@
+package graphics;
+
+import benchmarks.LevelFixture;
+import game.Level;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drawing the level layers of a 32x32 SmallGamePanel, as in the GUI. The
+ * tile sheet is a generated image with a different colour for every tile,
+ * so no resources are needed.
+ * <p>
+ * redraw draws the whole level. drawChanges loads the start and end states
+ * of the fixture solution in turn, so each call draws the tiles that differ
+ * between the two.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class DrawLevelBenchmark {
+
+    private SmallGamePanel panel;
+    private Level level;
+    private byte[] startState, endState;
+    private boolean drawEnd;
+
+    @Setup
+    public void setup(LevelFixture f) throws Exception {
+        int tileSize = Gui.DEFAULT_TILE_WIDTH;
+        BufferedImage tiles = new BufferedImage(7 * tileSize, 16 * tileSize, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = tiles.createGraphics();
+        for (int i = 0; i < 7 * 16; i++) {
+            g.setColor(Color.getHSBColor(i / (float) (7 * 16), 1, 1));
+            g.fillRect(i / 16 * tileSize, i % 16 * tileSize, tileSize, tileSize);
+        }
+        g.dispose();
+
+        panel = new SmallGamePanel(32, 32);
+        panel.initialise(null, tiles, TileSheet.CCEDIT_TW, tileSize, tileSize);
+        panel.setBGVisible(true);
+
+        level = f.dat.parseLevel(f.levelNumber, f.solution.rngSeed, f.solution.step);
+        startState = f.startState;
+        endState = f.endState;
+        panel.drawLevel(level, true);
+    }
+
+    @Benchmark
+    public BufferedImage redraw() {
+        panel.drawLevel(level, true);
+        return panel.fg;
+    }
+
+    @Benchmark
+    public BufferedImage drawChanges() {
+        drawEnd = !drawEnd;
+        level.load(drawEnd ? endState : startState);
+        panel.drawLevel(level, false);
+        return panel.fg;
+    }
+
+}
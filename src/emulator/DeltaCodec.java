@@ -0,0 +1,71 @@
+package emulator;
+
+import static emulator.SavestateCodec.*;
+import static game.SaveState.*;
+
+/**
+ * The DELTA savestate format:
+ * DELTA, chip (2 bytes), number of changed tiles n (2 bytes),
+ * n times (layer index (2 bytes, 0-1023 for bg and 1024-2047 for fg), tile),
+ * followed by everything after the layers in the uncompressed savestate.
+ */
+class DeltaCodec implements SavestateCodec {
+    
+    private static final int MAX_CHANGES = 256;
+    
+    @Override
+    public byte getVersion() {
+        return game.SaveState.DELTA;
+    }
+    
+    @Override
+    public boolean usesParent() {
+        return true;
+    }
+    
+    @Override
+    public byte[] encode(byte[] state, byte[] parentState) {
+        if (parentState == null) return null;
+        int changes = 0;
+        for (int i = LAYER_BG_LOCATION; i < LAYER_FG_END; i++) {
+            if (state[i] != parentState[i]) changes++;
+        }
+        if (changes > MAX_CHANGES) return null;
+        
+        int tailLength = state.length - LAYER_FG_END;
+        byte[] out = new byte[5 + 3 * changes + tailLength];
+        out[0] = game.SaveState.DELTA;
+        out[1] = state[1];
+        out[2] = state[2];
+        out[3] = (byte) (changes >>> 8);
+        out[4] = (byte) changes;
+        int j = 5;
+        for (int i = LAYER_BG_LOCATION; i < LAYER_FG_END; i++) {
+            if (state[i] != parentState[i]) {
+                int layerIndex = i - LAYER_BG_LOCATION;
+                out[j++] = (byte) (layerIndex >>> 8);
+                out[j++] = (byte) layerIndex;
+                out[j++] = state[i];
+            }
+        }
+        System.arraycopy(state, LAYER_FG_END, out, j, tailLength);
+        return out;
+    }
+    
+    @Override
+    public byte[] decode(byte[] data, byte[] parentState) {
+        int changes = ((data[3] & 0xFF) << 8) | (data[4] & 0xFF);
+        int tailStart = 5 + 3 * changes;
+        byte[] out = new byte[LAYER_FG_END + data.length - tailStart];
+        out[0] = UNCOMPRESSED;
+        out[1] = data[1];
+        out[2] = data[2];
+        System.arraycopy(parentState, LAYER_BG_LOCATION, out, LAYER_BG_LOCATION, 2 * 32 * 32);
+        for (int j = 5; j < tailStart; j += 3) {
+            out[LAYER_BG_LOCATION + (((data[j] & 0xFF) << 8) | (data[j+1] & 0xFF))] = data[j+2];
+        }
+        System.arraycopy(data, tailStart, out, LAYER_FG_END, data.length - tailStart);
+        return out;
+    }
+    
+}
@@ -0,0 +1,200 @@
+package emulator;
+
+import game.*;
+import io.DatParser;
+import io.TWSReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The emulator without any user interface. This holds the current level
+ * together with its savestates and solution, and reports everything that
+ * should be shown to the user to its listeners. It does not depend on Swing,
+ * so it can be used on a headless JVM.
+ */
+public class Emulator {
+
+    public static final byte UP = 'u', LEFT = 'l', DOWN = 'd', RIGHT = 'r', WAIT = '-';
+    private static final byte[] BYTE_MOVEMENT_KEYS = {UP, LEFT, DOWN, RIGHT, WAIT};
+    private static final Direction[][] DIRECTIONS = new Direction[][] {{Direction.UP}, {Direction.LEFT},
+        {Direction.DOWN}, {Direction.RIGHT}, {}};
+    public static final byte CHIP_RELATIVE_CLICK = 1;
+
+    private SavestateManager savestates;
+    private Level level;
+    private DatParser dat;
+    private Solution solution;
+    public TWSReader twsReader;
+    private final List<EmulatorListener> listeners = new CopyOnWriteArrayList<>();
+    
+    public void addListener(EmulatorListener l) {
+        listeners.add(l);
+    }
+    public void removeListener(EmulatorListener l) {
+        listeners.remove(l);
+    }
+    
+    public void repaint(boolean fromScratch) {
+        for (EmulatorListener l : listeners) l.repaint(level, fromScratch);
+    }
+    
+    public void showAction(String s){
+        for (EmulatorListener l : listeners) l.showAction(s);
+    }
+    
+    public void throwError(String s){
+        if (listeners.isEmpty()) System.err.println(s);
+        for (EmulatorListener l : listeners) l.throwError(s);
+    }
+    
+    void playbackFinished() {
+        for (EmulatorListener l : listeners) l.playbackFinished();
+    }
+    
+    public static boolean isDoubleMove(byte b) {
+        return b == 'U' || b == 'L' || b == 'D' || b == 'R' || b == '_';
+    }
+    
+    private static byte capital(byte b){
+        if (b == '-') return '_';
+        return (byte) Character.toUpperCase((char) b);
+    }
+    
+    public static byte[] lowerCase(byte b) {
+        if (b == 'U') return new byte[] {'u', '-'};
+        else if (b == 'L') return new byte[] {'l', '-'};
+        else if (b == 'D') return new byte[] {'d', '-'};
+        else if (b == 'R') return new byte[] {'r', '-'};
+        else return new byte[] {b};
+    }
+    
+    public DatParser getDat() {
+        return dat;
+    }
+    
+    public int lastLevelNumber() {
+        return dat.lastLevel();
+    }
+
+    public void setTWSFile(File twsFile){
+        try{
+            this.twsReader = new TWSReader(twsFile);
+        }
+        catch (IOException e){
+            e.printStackTrace();
+            throwError("Could not read file:\n"+e.getLocalizedMessage());
+        }
+    }
+
+    public Level getLevel(){
+        return level;
+    }
+    public Solution getSolution() {
+        return solution;
+    }
+    public SavestateManager getSavestates(){
+        return savestates;
+    }
+    public void setSavestates(SavestateManager sm) {
+        this.savestates = sm;
+    }
+
+    public void openLevelset(File levelset){
+        try{
+            dat = new DatParser(levelset);
+        }
+        catch (IOException e){
+            throwError("Could not read file:\n"+e.getLocalizedMessage());
+        }
+        loadLevel(1);
+    }
+
+    public synchronized void loadLevel(int levelNumber, int rngSeed, Step step, boolean keepMoves){
+        try{
+            if (keepMoves && level != null && levelNumber == level.getLevelNumber()) {
+                solution = new Solution(getSavestates().getMoveList(), rngSeed, step);
+                solution.load(this);
+            }
+            else {
+                level = dat.parseLevel(levelNumber, rngSeed, step);
+                savestates = new SavestateManager(level);
+                solution = new Solution(new byte[] {}, 0, Step.EVEN, Solution.HALF_MOVES);
+                for (EmulatorListener l : listeners) l.levelLoaded(level);
+                repaint(true);
+            }
+        }
+        catch (Exception e){
+            e.printStackTrace();
+            throwError("Could not load level: "+e.getMessage());
+        }
+    }
+
+    public synchronized void loadLevel(int levelNumber){
+        loadLevel(levelNumber, 0, Step.EVEN, true);
+    }
+
+    public boolean tick(byte b, Direction[] directions, TickFlags flags){
+        if (level == null) return false;
+        boolean tickTwice = tick(level, b, directions, flags.doubleTick);
+        if (flags.doubleTick && tickTwice) b = capital(b);
+        if (flags.save) savestates.addRewindState(level, b);
+        if (flags.repaint) repaint(false);
+        return tickTwice;
+    }
+    
+    public static boolean isClick(byte b){
+        return b <= 0;
+    }
+    
+    public boolean tick(byte b, TickFlags flags){
+        if (level == null) return false;
+        Direction[] directions = getDirections(level, b);
+        if (directions == null) return false;
+        return tick(b, directions, flags);
+    }
+    
+    /**
+     * Advances a level by one move without saving or repainting anything.
+     * Unlike the other tick methods this does not use the emulator's level,
+     * so it can be called from several threads at once as long as each
+     * thread has its own level.
+     * @param level The level to tick
+     * @param b The move, either a movement key or a click
+     * @param doubleTick Whether to automatically make the second half of a
+     *                   full move
+     * @return true if the move was a full move
+     */
+    public static boolean tick(Level level, byte b, boolean doubleTick){
+        Direction[] directions = getDirections(level, b);
+        if (directions == null) return false;
+        return tick(level, b, directions, doubleTick);
+    }
+    
+    private static boolean tick(Level level, byte b, Direction[] directions, boolean doubleTick){
+        boolean tickTwice = level.tick(b, directions);
+        if (doubleTick && tickTwice) level.tick(capital(b), DIRECTIONS[4]);
+        return tickTwice;
+    }
+    
+    /**
+     * Get the directions chip tries to move in for a move byte. For clicks,
+     * this also sets the click position of the level.
+     * @return The directions, or null if b is not a valid move
+     */
+    private static Direction[] getDirections(Level level, byte b){
+        if (isClick(b)){
+            Position screenPosition = Position.screenPosition(level.getChip().getPosition());
+            Position clickedPosition = Position.clickPosition(screenPosition, b);
+            level.setClick(clickedPosition.getIndex());
+            return level.getChip().getPosition().seek(clickedPosition);
+        }
+        for (int i = 0; i < BYTE_MOVEMENT_KEYS.length; i++) {
+            if (BYTE_MOVEMENT_KEYS[i] == b) return DIRECTIONS[i];
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,35 @@
+package emulator;
+
+import game.Level;
+
+/**
+ * Receives updates from an {@link Emulator}. The emulator itself never
+ * touches the screen, so a graphical front end is just one of these.
+ */
+public interface EmulatorListener {
+    
+    /**
+     * Called whenever the level changed and should be redrawn.
+     * @param level The current level
+     * @param fromScratch true if the whole level should be redrawn rather
+     *                    than only the parts that changed
+     */
+    void repaint(Level level, boolean fromScratch);
+    
+    /**
+     * Called after a new level was loaded.
+     * @param level The new level
+     */
+    void levelLoaded(Level level);
+    
+    void showAction(String s);
+    
+    void throwError(String s);
+    
+    /**
+     * Called when solution playback stops on its own, either because the end
+     * of the solution was reached or because the level changed.
+     */
+    void playbackFinished();
+    
+}
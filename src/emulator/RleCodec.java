@@ -0,0 +1,119 @@
+package emulator;
+
+import util.ByteList;
+
+import static emulator.SavestateCodec.*;
+import static game.SaveState.*;
+
+/**
+ * The COMPRESSED savestate format: both layers are run length encoded, the
+ * rest of the savestate is stored as it is.
+ */
+class RleCodec implements SavestateCodec {
+    
+    @Override
+    public byte getVersion() {
+        return COMPRESSED;
+    }
+    
+    @Override
+    public boolean usesParent() {
+        return false;
+    }
+    
+    @Override
+    public byte[] encode(byte[] state, byte[] parentState) {
+        return compress(state, new ByteList());
+    }
+    
+    @Override
+    public byte[] decode(byte[] data, byte[] parentState) {
+        if (data[0] == UNCOMPRESSED) return data;
+        int i = rleDecompress(data, LAYER_BG_LOCATION, null, 0);
+        int layersEnd = rleDecompress(data, i, null, 0);
+        byte[] out = new byte[LAYER_FG_END + data.length - layersEnd];
+        out[0] = UNCOMPRESSED;
+        out[1] = data[1];
+        out[2] = data[2];
+        readLayers(data, out, LAYER_BG_LOCATION);
+        System.arraycopy(data, layersEnd, out, LAYER_FG_END, data.length - layersEnd);
+        return out;
+    }
+    
+    /**
+     * Compress a savestate, using list as a buffer.
+     */
+    static byte[] compress(byte[] uncompressedState, ByteList list){
+        list.clear();
+        rleCompress(uncompressedState, list, LAYER_BG_LOCATION, 32*32);
+        rleCompress(uncompressedState, list, LAYER_FG_LOCATION, 32*32);
+        byte[] out = new byte[uncompressedState.length - 2 * 32 * 32 + list.size()];
+        out[0] = COMPRESSED;
+        out[1] = uncompressedState[1];
+        out[2] = uncompressedState[2];
+        list.copy(out, 3);
+        System.arraycopy(uncompressedState, LAYER_FG_END, out, 3+list.size(), uncompressedState.length - 2 * 32 * 32 - 3);
+        return out;
+    }
+    
+    /**
+     * Write both layers of a COMPRESSED or UNCOMPRESSED savestate to out,
+     * bg first.
+     */
+    private static void readLayers(byte[] savestate, byte[] out, int outIndex) {
+        if (savestate[0] == COMPRESSED) {
+            int i = rleDecompress(savestate, LAYER_BG_LOCATION, out, outIndex);
+            rleDecompress(savestate, i, out, outIndex + 32 * 32);
+        }
+        else System.arraycopy(savestate, LAYER_BG_LOCATION, out, outIndex, 2 * 32 * 32);
+    }
+    
+    private static void rleCompress(byte[] uncompressed, ByteList out, int startIndex, int length){
+        int lastOrdinal = uncompressed[startIndex];
+        int ordinal;
+        int copyCount = -1;
+        for (int i = startIndex; i < startIndex + length; i++) {
+            ordinal = uncompressed[i];
+            if (ordinal == lastOrdinal){
+                if (copyCount == 255){
+                    out.add(RLE_MULTIPLE);
+                    out.add(copyCount);
+                    copyCount = 0;
+                    out.add(ordinal);
+                }
+                else copyCount++;
+            }
+            else {
+                if (copyCount != 0){
+                    out.add(RLE_MULTIPLE);
+                    out.add(copyCount);
+                }
+                out.add(lastOrdinal);
+                copyCount = 0;
+                lastOrdinal = ordinal;
+            }
+        }
+        if (copyCount != 0){
+            out.add(RLE_MULTIPLE);
+            out.add(copyCount);
+        }
+        out.add(lastOrdinal);
+        out.add(RLE_END);
+    }
+    
+    // Decompress one layer starting at index i. If out is null, the layer is
+    // only skipped. Returns the index after the RLE_END byte.
+    private static int rleDecompress(byte[] compressed, int i, byte[] out, int outIndex) {
+        byte b;
+        while ((b = compressed[i++]) != RLE_END) {
+            if (b == RLE_MULTIPLE) {
+                int rleLength = (compressed[i++] & 0xFF) + 1;
+                byte t = compressed[i++];
+                if (out != null) for (int j = 0; j < rleLength; j++) out[outIndex++] = t;
+            }
+            else if (out != null) out[outIndex++] = b;
+        }
+        return i;
+    }
+    
+}
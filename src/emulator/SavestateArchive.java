@@ -0,0 +1,316 @@
+package emulator;
+
+import game.Position;
+import util.ByteList;
+import util.TreeNode;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static game.SaveState.UNCOMPRESSED;
+
+/**
+ * Saves and loads all states of a SavestateManager as a binary archive.
+ * <p>
+ * The file starts with MAGIC and the format version. The states follow, one
+ * after the other, in the format they are stored in by the manager; full
+ * states are RLE compressed first. After the states come:
+ * </p>
+ * <ul>
+ *     <li>the node table: the number of nodes, then for each node its parent
+ *     index (-1 for the root), the offset of its state and its length. Parents
+ *     always come before their children.</li>
+ *     <li>the playback nodes: the index of the last node that can be replayed
+ *     to, the playback index and the move list.</li>
+ *     <li>the savestates: their number, then for each savestate its key, node
+ *     index and move list.</li>
+ *     <li>the offset of the node table and MAGIC again.</li>
+ * </ul>
+ * <p>
+ * States are written as they are visited, so saving never holds more than
+ * one state in memory. Reading only loads the node table; the state of a
+ * node is read from the file whenever it is needed. The file is opened for
+ * each read and never kept open or mapped, so the next save can replace it,
+ * which Windows does not allow for an open or mapped file. Saving moves the
+ * nodes that were read from an archive to the new file. If the file is
+ * changed in any other way, reading their states fails.
+ * </p>
+ */
+public class SavestateArchive {
+
+    private static final int MAGIC = 0x53434341;                // "SCCA"
+    private static final int VERSION = 1;
+    private static final int TRAILER_LENGTH = 8 + 4;
+
+    /**
+     * @param file A file
+     * @return true if the file starts like a savestate archive. Files saved
+     * by older versions of SuperCC are serialized Java objects instead.
+     */
+    public static boolean isArchive(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return file.length() >= 8 + TRAILER_LENGTH && in.readInt() == MAGIC;
+        }
+    }
+
+    /**
+     * Write all states of a savestate manager. The archive is written to a
+     * temporary file first, which then replaces file. Nodes that were read
+     * from an archive read their states from file afterwards.
+     */
+    public static void write(SavestateManager manager, File file) throws IOException {
+        List<TreeNode<byte[]>> playbackNodes = manager.getPlaybackNodes();
+        Map<Integer, TreeNode<byte[]>> savestates = manager.getSavestateNodes();
+        int playbackIndex = manager.getPlaybackIndex();
+        if (playbackIndex < 0 || playbackIndex >= playbackNodes.size()) {
+            throw new IOException("Invalid playback index " + playbackIndex + " of " + playbackNodes.size() + " nodes");
+        }
+
+        // Number the nodes so that parents come first
+        IdentityHashMap<TreeNode<byte[]>, Integer> indices = new IdentityHashMap<>();
+        List<TreeNode<byte[]>> nodes = new ArrayList<>();
+        List<TreeNode<byte[]>> tips = new ArrayList<>();
+        tips.add(playbackNodes.get(playbackNodes.size() - 1));
+        tips.addAll(savestates.values());
+        for (TreeNode<byte[]> tip : tips) {
+            ArrayDeque<TreeNode<byte[]>> newNodes = new ArrayDeque<>();
+            for (TreeNode<byte[]> n = tip; n != null && !indices.containsKey(n); n = n.getParent()) newNodes.push(n);
+            for (TreeNode<byte[]> n : newNodes) {
+                indices.put(n, nodes.size());
+                nodes.add(n);
+            }
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        long[] offsets = new long[nodes.size()];
+        int[] lengths = new int[nodes.size()];
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                long offset = 8;
+                ByteList buffer = new ByteList();
+                for (int i = 0; i < nodes.size(); i++) {
+                    byte[] data = nodes.get(i).getData();
+                    if (data[0] == UNCOMPRESSED) data = RleCodec.compress(data, buffer);
+                    out.write(data);
+                    offsets[i] = offset;
+                    lengths[i] = data.length;
+                    offset += data.length;
+                }
+
+                long tableOffset = offset;
+                out.writeInt(nodes.size());
+                for (int i = 0; i < nodes.size(); i++) {
+                    TreeNode<byte[]> parent = nodes.get(i).getParent();
+                    out.writeInt(parent == null ? -1 : indices.get(parent));
+                    out.writeLong(offsets[i]);
+                    out.writeInt(lengths[i]);
+                }
+
+                out.writeInt(indices.get(playbackNodes.get(playbackNodes.size() - 1)));
+                out.writeInt(playbackIndex);
+                writeMoves(out, manager.getMoveList());
+
+                Map<Integer, ByteList> savestateMoves = manager.getSavestateMoves();
+                out.writeInt(savestates.size());
+                for (Map.Entry<Integer, TreeNode<byte[]>> entry : savestates.entrySet()) {
+                    out.writeInt(entry.getKey());
+                    out.writeInt(indices.get(entry.getValue()));
+                    writeMoves(out, savestateMoves.get(entry.getKey()));
+                }
+
+                out.writeLong(tableOffset);
+                out.writeInt(MAGIC);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+
+        // The file the nodes were read from may just have been replaced
+        Source source = new Source(file);
+        for (int i = 0; i < nodes.size(); i++) {
+            if (nodes.get(i) instanceof ArchivedNode) ((ArchivedNode) nodes.get(i)).moveTo(source, offsets[i], lengths[i]);
+        }
+    }
+
+    /**
+     * Read a savestate manager from an archive. The states are read from the
+     * archive when they are first needed.
+     */
+    public static SavestateManager read(File file) throws IOException {
+        Source source = new Source(file);
+        List<TreeNode<byte[]>> nodes;
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 8 + TRAILER_LENGTH) throw new IOException("Not a savestate archive");
+            ByteBuffer header = read(channel, 0, 8);
+            ByteBuffer trailer = read(channel, size - TRAILER_LENGTH, TRAILER_LENGTH);
+            if (header.getInt(0) != MAGIC || trailer.getInt(8) != MAGIC) throw new IOException("Not a savestate archive");
+            if (header.getInt(4) != VERSION) throw new IOException("Unsupported savestate archive version " + header.getInt(4));
+            long tableOffset = trailer.getLong(0);
+            if (tableOffset < 8 || size - TRAILER_LENGTH - tableOffset > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt savestate archive");
+            }
+            in = read(channel, tableOffset, (int) (size - TRAILER_LENGTH - tableOffset));
+
+            try {
+                int numNodes = in.getInt();
+                nodes = new ArrayList<>(numNodes);
+                // Chip's position is kept in memory, as it is drawn for every node
+                ByteBuffer chip = ByteBuffer.allocate(2);
+                for (int i = 0; i < numNodes; i++) {
+                    int parent = in.getInt();
+                    long offset = in.getLong();
+                    int length = in.getInt();
+                    if (offset < 8 || length < 3 || offset + length > tableOffset) throw new IOException("Invalid state offset");
+                    read(channel, offset + 1, chip.clear());
+                    nodes.add(new ArchivedNode(source, offset, length, chip.getShort(0),
+                                               parent == -1 ? null : nodes.get(parent)));
+                }
+            }
+            catch (RuntimeException e) {
+                throw new IOException("Corrupt savestate archive", e);
+            }
+        }
+
+        try {
+            List<TreeNode<byte[]>> playbackNodes = new ArrayList<>(nodes.get(in.getInt()).getHistory());
+            int playbackIndex = in.getInt();
+            if (playbackIndex < 0 || playbackIndex > playbackNodes.size()) throw new IOException("Invalid playback index");
+            // Earlier versions could save the index one past the last node after loading a savestate
+            playbackIndex = Math.min(playbackIndex, playbackNodes.size() - 1);
+            ByteList moves = readMoves(in);
+
+            HashMap<Integer, TreeNode<byte[]>> savestates = new HashMap<>();
+            HashMap<Integer, ByteList> savestateMoves = new HashMap<>();
+            int numSavestates = in.getInt();
+            for (int i = 0; i < numSavestates; i++) {
+                int key = in.getInt();
+                savestates.put(key, nodes.get(in.getInt()));
+                savestateMoves.put(key, readMoves(in));
+            }
+            return new SavestateManager(playbackNodes, playbackIndex, moves, savestates, savestateMoves);
+        }
+        catch (RuntimeException e) {
+            throw new IOException("Corrupt savestate archive", e);
+        }
+    }
+
+    /**
+     * @param node A node of a savestate manager
+     * @return The position of Chip in the state of the node. For nodes read
+     * from an archive, the state is not read.
+     */
+    static Position getChipPosition(TreeNode<byte[]> node) {
+        if (node instanceof ArchivedNode) return ((ArchivedNode) node).getChipPosition();
+        byte[] data = node.getData();
+        return new Position(((data[1] & 0xFF) << 8) | (data[2] & 0xFF));
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        return read(channel, position, ByteBuffer.allocate(length));
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException("Savestate archive is truncated");
+        }
+        return buffer.flip();
+    }
+
+    private static void writeMoves(DataOutputStream out, ByteList moves) throws IOException {
+        out.writeInt(moves.size());
+        out.write(moves.toArray());
+    }
+
+    private static ByteList readMoves(ByteBuffer in) {
+        byte[] moves = new byte[in.getInt()];
+        in.get(moves);
+        return new ByteList(moves);
+    }
+
+    /**
+     * The archive file nodes were read from, with its length and modification
+     * time at that point, to detect when it has been replaced.
+     */
+    private static class Source {
+
+        private final File file;
+        private final long length, modified;
+
+        void check() throws IOException {
+            if (file.length() != length || file.lastModified() != modified) {
+                throw new IOException(file + " was changed since the savestates were read");
+            }
+        }
+
+        Source(File file) {
+            this.file = file;
+            this.length = file.length();
+            this.modified = file.lastModified();
+        }
+    }
+
+    /**
+     * A node whose state is read from the archive every time it is needed,
+     * unless it has been replaced with setData.
+     */
+    private static class ArchivedNode extends TreeNode<byte[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient Source source;
+        private transient long offset;
+        private transient int length;
+        private final short chip;
+
+        @Override
+        public byte[] getData() {
+            byte[] data = super.getData();
+            if (data != null) return data;
+            Source source;
+            long offset;
+            synchronized (this) {
+                source = this.source;
+                offset = this.offset;
+                data = new byte[length];
+            }
+            try (FileChannel channel = FileChannel.open(source.file.toPath(), StandardOpenOption.READ)) {
+                source.check();
+                read(channel, offset, ByteBuffer.wrap(data));
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException("Could not read savestate from " + source.file, e);
+            }
+            return data;
+        }
+
+        Position getChipPosition() {
+            return new Position(chip & 0xFFFF);
+        }
+
+        synchronized void moveTo(Source source, long offset, int length) {
+            this.source = source;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        ArchivedNode(Source source, long offset, int length, short chip, TreeNode<byte[]> parent) {
+            super(null, parent);
+            this.source = source;
+            this.offset = offset;
+            this.length = length;
+            this.chip = chip;
+        }
+    }
+
+}
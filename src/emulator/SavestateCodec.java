@@ -0,0 +1,86 @@
+package emulator;
+
+import static game.SaveState.*;
+
+/**
+ * Converts uncompressed savestates to and from the format they are stored in
+ * by SavestateManager. The first byte of a stored savestate is the version
+ * of its codec and bytes 1-2 are always chip, so SaveState.getChip() works on
+ * any stored savestate.
+ * <p>
+ * Codecs that use the parent state store the difference to the savestate of
+ * the parent TreeNode. Decoding them needs the uncompressed parent savestate.
+ * </p>
+ */
+public interface SavestateCodec {
+    
+    int LAYER_BG_LOCATION = 3,
+        LAYER_FG_LOCATION = LAYER_BG_LOCATION + 32 * 32,
+        LAYER_FG_END = LAYER_FG_LOCATION + 32 * 32;
+    
+    SavestateCodec NONE = new SavestateCodec() {
+        @Override
+        public byte getVersion() {
+            return UNCOMPRESSED;
+        }
+        @Override
+        public boolean usesParent() {
+            return false;
+        }
+        @Override
+        public byte[] encode(byte[] state, byte[] parentState) {
+            return state;
+        }
+        @Override
+        public byte[] decode(byte[] data, byte[] parentState) {
+            return data;
+        }
+    };
+    SavestateCodec RLE = new RleCodec();
+    SavestateCodec DELTA = new DeltaCodec();
+    SavestateCodec XOR = new XorCodec();
+    
+    /**
+     * @return The codec that reads savestates of a version
+     */
+    static SavestateCodec forVersion(int version) {
+        switch (version) {
+            case UNCOMPRESSED: return NONE;
+            case COMPRESSED: return RLE;
+            case game.SaveState.DELTA: return DELTA;
+            case game.SaveState.XOR: return XOR;
+            default: throw new IllegalArgumentException("Unknown savestate version " + version);
+        }
+    }
+    
+    byte getVersion();
+    
+    boolean usesParent();
+    
+    /**
+     * @param state An uncompressed savestate
+     * @param parentState The uncompressed savestate of the parent node, or
+     *                    null if there is none. Ignored if the codec does not
+     *                    use the parent state.
+     * @return The encoded savestate, or null if this codec cannot store it in
+     * less space than a full savestate
+     */
+    byte[] encode(byte[] state, byte[] parentState);
+    
+    /**
+     * @param data A savestate encoded by this codec
+     * @param parentState The uncompressed savestate of the parent node.
+     *                    Ignored if the codec does not use the parent state.
+     * @return The uncompressed savestate
+     */
+    byte[] decode(byte[] data, byte[] parentState);
+    
+    /**
+     * Like decode, but parentState may be overwritten and returned. This is
+     * used when rebuilding a savestate through a chain of deltas.
+     */
+    default byte[] decodeInto(byte[] data, byte[] parentState) {
+        return decode(data, parentState);
+    }
+    
+}
@@ -0,0 +1,183 @@
+package emulator;
+
+import util.ByteList;
+import util.TreeNode;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static game.SaveState.UNCOMPRESSED;
+
+/**
+ * Compresses the layers of uncompressed savestates in the background,
+ * replacing the data of their TreeNode when done.
+ * <p>
+ * Savestates are compressed in the order they were added. Any thread may
+ * add savestates; they are queued in a lock-free queue and taken off it by
+ * the worker threads in batches of up to BATCH_SIZE. The queue holds at
+ * most capacity savestates. When it is full, add() compresses the savestate
+ * itself, so a producer that is faster than the workers slows down instead
+ * of using more and more memory.
+ * </p>
+ */
+public class SavestateCompressor {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+    private static final int BATCH_SIZE = 64;
+
+    private final ConcurrentLinkedQueue<Task> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final int capacity;
+    private final Thread[] threads;
+    private final AtomicInteger nextThread = new AtomicInteger();
+    private volatile boolean shutdown = false;
+
+    private final AtomicLong numCompressed = new AtomicLong();
+    private final AtomicLong numCompressedByCaller = new AtomicLong();
+    private final AtomicLong totalLag = new AtomicLong();
+    private final AtomicLong maxLag = new AtomicLong();
+
+    private static class Task {
+        final TreeNode<byte[]> node;
+        final long addedTime;
+        Task(TreeNode<byte[]> node) {
+            this.node = node;
+            addedTime = System.nanoTime();
+        }
+    }
+
+    /**
+     * Queue a node for compression. If the queue is full, the node is
+     * compressed on the calling thread instead.
+     * @param n A node containing an uncompressed savestate
+     */
+    public void add(TreeNode<byte[]> n) {
+        if (shutdown || queueDepth.incrementAndGet() > capacity) {
+            if (!shutdown) queueDepth.decrementAndGet();
+            Task task = new Task(n);
+            compress(n, new ByteList());
+            numCompressedByCaller.incrementAndGet();
+            finished(task);
+            return;
+        }
+        queue.add(new Task(n));
+        LockSupport.unpark(threads[Math.floorMod(nextThread.getAndIncrement(), threads.length)]);
+    }
+
+    /**
+     * @return The number of savestates waiting to be compressed
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * @return The number of savestates compressed so far, including those
+     * compressed by add() because the queue was full
+     */
+    public long getNumCompressed() {
+        return numCompressed.get();
+    }
+
+    /**
+     * @return The number of savestates compressed by add() because the queue
+     * was full
+     */
+    public long getNumCompressedByCaller() {
+        return numCompressedByCaller.get();
+    }
+
+    /**
+     * @return The average time in milliseconds between a savestate being
+     * added and it being compressed
+     */
+    public double getAverageLag() {
+        long n = numCompressed.get();
+        if (n == 0) return 0;
+        return totalLag.get() / (double) n / 1_000_000;
+    }
+
+    /**
+     * @return The longest time in milliseconds between a savestate being
+     * added and it being compressed
+     */
+    public double getMaxLag() {
+        return maxLag.get() / 1_000_000.0;
+    }
+
+    public int getNumThreads() {
+        return threads.length;
+    }
+
+    /**
+     * Stop the worker threads once the queue is empty. Savestates added after
+     * this are compressed by the calling thread.
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (Thread t : threads) LockSupport.unpark(t);
+    }
+
+    private void finished(Task task) {
+        long lag = System.nanoTime() - task.addedTime;
+        totalLag.addAndGet(lag);
+        maxLag.accumulateAndGet(lag, Math::max);
+        numCompressed.incrementAndGet();
+    }
+
+    private void run() {
+        Task[] batch = new Task[BATCH_SIZE];
+        ByteList list = new ByteList();
+        while (true) {
+            int n = 0;
+            Task task;
+            while (n < BATCH_SIZE && (task = queue.poll()) != null) batch[n++] = task;
+            if (n == 0) {
+                if (shutdown) return;
+                LockSupport.park(this);
+                continue;
+            }
+            for (int i = 0; i < n; i++) {
+                try {
+                    compress(batch[i].node, list);
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+                finished(batch[i]);
+                batch[i] = null;
+            }
+            queueDepth.addAndGet(-n);
+        }
+    }
+
+    private static void compress(TreeNode<byte[]> n, ByteList list){
+        byte[] data = n.getData();
+        if (data[0] != UNCOMPRESSED) return;
+        n.setData(RleCodec.compress(data, list));
+    }
+
+    /**
+     * @param numThreads The number of worker threads
+     * @param capacity The maximum number of savestates waiting to be
+     *                 compressed
+     */
+    public SavestateCompressor(int numThreads, int capacity){
+        if (numThreads < 1) throw new IllegalArgumentException("A compressor needs at least one thread");
+        this.capacity = capacity;
+        threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            threads[i] = new Thread(this::run, "Savestate compressor " + i);
+            threads[i].setPriority(Thread.MIN_PRIORITY);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    public SavestateCompressor(int numThreads){
+        this(numThreads, DEFAULT_CAPACITY);
+    }
+
+}
@@ -2,11 +2,9 @@ package emulator;
 
 import game.Level;
 import game.Position;
-import game.SaveState;
 import util.ByteList;
 import util.TreeNode;
 
-import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
@@ -14,15 +12,33 @@ import java.util.*;
 
 import static game.SaveState.*;
 
+/**
+ * The tree of rewind states of a level.
+ * <p>
+ * Most rewind states are stored as a delta to their parent, using the delta
+ * codec (XOR by default, see SavestateCodec). Every KEYFRAME_INTERVAL-th
+ * state, and every state the delta codec cannot store compactly, is stored
+ * in full and compressed in the background. Use getSavestate() to get the
+ * current state as a savestate that can be loaded.
+ * </p>
+ */
 public class SavestateManager implements Serializable {
+
+    // The computed id of the class when states were saved as serialized objects, so those files still load
+    private static final long serialVersionUID = 2251720072515693460L;
+    private static final int KEYFRAME_INTERVAL = 32;
+    
+    private static SavestateCompressor compressor = new SavestateCompressor(1);
+    private static SavestateCodec deltaCodec = SavestateCodec.XOR;
     
     private HashMap<Integer, TreeNode<byte[]>> savestates = new HashMap<>();
     private HashMap<Integer, ByteList> savestateMoves = new HashMap<>();
     private TreeNode<byte[]> currentNode;
     private ByteList moves;
-    private transient SavestateCompressor compressor;
     private transient List<TreeNode<byte[]>> playbackNodes = new ArrayList<>();
     private transient int playbackIndex = 1;
+    private transient TreeNode<byte[]> cachedNode;
+    private transient byte[] cachedState;
     
     private transient boolean pause = true;
     private static final int STANDARD_WAIT_TIME = 100;              // 100 ms means 10 half-ticks per second.
@@ -38,6 +54,36 @@ public class SavestateManager implements Serializable {
     };
     public static final int NUM_SPEEDS = waitTimes.length;
     
+    /**
+     * @return The compressor shared by all savestate managers
+     */
+    public static SavestateCompressor getCompressor() {
+        return compressor;
+    }
+    
+    /**
+     * Replace the compressor shared by all savestate managers, for example to
+     * use more threads. The old compressor finishes its queue and stops.
+     */
+    public static void setCompressor(SavestateCompressor c) {
+        SavestateCompressor old = compressor;
+        compressor = c;
+        old.shutdown();
+    }
+    
+    public static SavestateCodec getDeltaCodec() {
+        return deltaCodec;
+    }
+    
+    /**
+     * Set the codec used for rewind states that are not stored in full. The
+     * codec must use the parent state. Existing states are not re-encoded.
+     */
+    public static void setDeltaCodec(SavestateCodec codec) {
+        if (!codec.usesParent()) throw new IllegalArgumentException("Delta codecs must use the parent state");
+        deltaCodec = codec;
+    }
+    
     public void setPlaybackSpeed(int i) {
         playbackWaitTime = waitTimes[i];
     }
@@ -49,11 +95,10 @@ public class SavestateManager implements Serializable {
     private void readObject(java.io.ObjectInputStream in)
         throws IOException, ClassNotFoundException {
         in.defaultReadObject();
-        compressor = new SavestateCompressor();
         pause = false;
         playbackWaitTime = STANDARD_WAIT_TIME;
-        playbackIndex = currentNode.depth();
-        playbackNodes = new ArrayList<>(playbackIndex*2);
+        playbackIndex = currentNode.depth() - 1;
+        playbackNodes = new ArrayList<>(currentNode.depth()*2);
         for (TreeNode<byte[]> node : currentNode.getHistory()) playbackNodes.add(node);
         System.out.println(currentNode.depth());
     }
@@ -64,8 +109,19 @@ public class SavestateManager implements Serializable {
             playbackNodes.remove(playbackNodes.size()-1);
             moves.removeLast();
         }
-        currentNode = new TreeNode<>(level.save(), currentNode);
-        compressor.add(currentNode);
+        byte[] parentState = getSavestate();
+        byte[] state = level.save();
+        byte[] delta = null;
+        if ((currentNode.depth() + 1) % KEYFRAME_INTERVAL != 0) delta = deltaCodec.encode(state, parentState);
+        if (delta == null) {
+            currentNode = new TreeNode<>(state, currentNode);
+            compressor.add(currentNode);
+        }
+        else currentNode = new TreeNode<>(delta, currentNode);
+        synchronized (this) {
+            cachedNode = currentNode;
+            cachedState = state;
+        }
         playbackNodes.add(currentNode);
         moves.add(b);
         playbackIndex = playbackNodes.size() - 1;
@@ -104,14 +160,14 @@ public class SavestateManager implements Serializable {
         return pause;
     }
     
-    public void play(SuperCC emulator) {
+    public void play(Emulator emulator) {
         final TickFlags replayNoSave = new TickFlags(true, false, false);
         pause = false;
         int levelNumber = emulator.getLevel().getLevelNumber();
         try {
             while (emulator.getLevel().getLevelNumber() == levelNumber && !pause && playbackIndex + 1 < playbackNodes.size()) {
-                emulator.getLevel().load(currentNode.getData());
-                byte b = SuperCC.lowerCase(moves.get(playbackIndex))[0];
+                emulator.getLevel().load(getSavestate());
+                byte b = Emulator.lowerCase(moves.get(playbackIndex))[0];
                 boolean tickTwice = emulator.tick(b, replayNoSave);
                 Thread.sleep(playbackWaitTime);
                 if (tickTwice) {
@@ -125,36 +181,37 @@ public class SavestateManager implements Serializable {
             e.printStackTrace();
         }
         if (!pause) {
-            emulator.getMainWindow().getPlayButton().doClick();
+            pause = true;
+            emulator.playbackFinished();
             emulator.showAction("Playback finished");
         }
         emulator.repaint(false);
     }
     
-    public List<BufferedImage> play(SuperCC emulator, int numHalfTicks) {
-        ArrayList<BufferedImage> images = new ArrayList<>();
-        BufferedImage img = new BufferedImage(32 * 20, 32 * 20, BufferedImage.TYPE_4BYTE_ABGR);
-        emulator.getMainWindow().getGamePanel().paintComponent(img.getGraphics());
-        images.add(img);
+    /**
+     * Play back up to numHalfTicks half-ticks as fast as possible.
+     * @param emulator The emulator to play on
+     * @param numHalfTicks The maximum number of half-ticks to play
+     * @param onFrame Called once before the first half-tick and once after
+     *                every half-tick, for example to record the screen
+     */
+    public void play(Emulator emulator, int numHalfTicks, Runnable onFrame) {
+        onFrame.run();
         while (numHalfTicks-- > 0 && playbackIndex + 1 < playbackNodes.size()) {
-            byte b = SuperCC.lowerCase(moves.get(playbackIndex))[0];
+            byte b = Emulator.lowerCase(moves.get(playbackIndex))[0];
             boolean tickTwice = emulator.tick(b, TickFlags.REPLAY);
-            img = new BufferedImage(32 * 20, 32 * 20, BufferedImage.TYPE_4BYTE_ABGR);
-            emulator.getMainWindow().getGamePanel().paintComponent(img.getGraphics());
-            images.add(img);
+            onFrame.run();
             if (tickTwice && numHalfTicks-- > 0) {
                 emulator.tick((byte) '-', TickFlags.REPLAY);
-                img = new BufferedImage(32 * 20, 32 * 20, BufferedImage.TYPE_4BYTE_ABGR);
-                emulator.getMainWindow().getGamePanel().paintComponent(img.getGraphics());
-                images.add(img);
+                onFrame.run();
             }
             replay();
         }
         if (!pause) {
-            emulator.getMainWindow().getPlayButton().doClick();
+            pause = true;
+            emulator.playbackFinished();
         }
         emulator.repaint(false);
-        return images;
     }
     
     public void addSavestate(int key){
@@ -166,14 +223,15 @@ public class SavestateManager implements Serializable {
         TreeNode<byte[]> loadedNode = savestates.get(key);
         if (loadedNode == null) return false;
         currentNode = loadedNode;
-        level.load(currentNode.getData());
-        if (!playbackNodes.contains(currentNode)) {
+        level.load(getSavestate());
+        int index = playbackNodes.indexOf(currentNode);
+        if (index < 0) {
             playbackNodes = currentNode.getHistory();
-            playbackIndex = playbackNodes.size();
+            playbackIndex = playbackNodes.size() - 1;
             moves = savestateMoves.get(key).clone();
         }
         else {
-            playbackIndex = playbackNodes.indexOf(currentNode);
+            playbackIndex = index;
         }
         return true;
     }
@@ -186,8 +244,39 @@ public class SavestateManager implements Serializable {
         return playbackIndex;
     }
     
-    public byte[] getSavestate(){
-        return currentNode.getData();
+    /**
+     * @return The current state as an uncompressed savestate. If it is stored
+     * as a delta, it is rebuilt from the nearest full state.
+     */
+    public synchronized byte[] getSavestate(){
+        TreeNode<byte[]> node = currentNode;
+        if (node != cachedNode) {
+            cachedState = resolve(node);
+            cachedNode = node;
+        }
+        return cachedState;
+    }
+    
+    // Must be called while holding the lock, as it reads the cached state
+    private byte[] resolve(TreeNode<byte[]> node) {
+        List<byte[]> deltas = new ArrayList<>();
+        byte[] data = node.getData();
+        while (node != cachedNode && SavestateCodec.forVersion(data[0]).usesParent()) {
+            deltas.add(data);
+            node = node.getParent();
+            data = node.getData();
+        }
+        byte[] state;
+        if (node == cachedNode) state = cachedState;
+        else state = SavestateCodec.forVersion(data[0]).decode(data, null);
+        for (int i = deltas.size() - 1; i >= 0; i--) {
+            byte[] delta = deltas.get(i);
+            SavestateCodec codec = SavestateCodec.forVersion(delta[0]);
+            // Only the first decode reads a state that may be shared
+            if (i == deltas.size() - 1) state = codec.decode(delta, state);
+            else state = codec.decodeInto(delta, state);
+        }
+        return state;
     }
     
     public byte[] getStartingState() {
@@ -218,107 +307,36 @@ public class SavestateManager implements Serializable {
         currentNode = new TreeNode<>(level.save(), null);
         playbackNodes.add(currentNode);
         moves = new ByteList();
-        compressor = new SavestateCompressor();
+    }
+    
+    /**
+     * Create a savestate manager from saved states, see SavestateArchive.
+     * @param playbackNodes The playback nodes, from the root to the last
+     *                      node that can be replayed to
+     * @param playbackIndex The index of the current node in playbackNodes
+     */
+    SavestateManager(List<TreeNode<byte[]>> playbackNodes, int playbackIndex, ByteList moves,
+                     HashMap<Integer, TreeNode<byte[]>> savestates, HashMap<Integer, ByteList> savestateMoves){
+        this.playbackNodes = playbackNodes;
+        this.playbackIndex = playbackIndex;
+        this.currentNode = playbackNodes.get(playbackIndex);
+        this.moves = moves;
+        this.savestates = savestates;
+        this.savestateMoves = savestateMoves;
+    }
+    
+    Map<Integer, TreeNode<byte[]>> getSavestateNodes() {
+        return savestates;
+    }
+    
+    Map<Integer, ByteList> getSavestateMoves() {
+        return savestateMoves;
     }
     
     public LinkedList<Position> getChipHistory(){
         LinkedList<Position> chipHistory = new LinkedList<>();
-        for (TreeNode<byte[]> node : currentNode.getHistory()) chipHistory.add(SaveState.getChip(node.getData()).getPosition());
+        for (TreeNode<byte[]> node : currentNode.getHistory()) chipHistory.add(SavestateArchive.getChipPosition(node));
         return chipHistory;
     }
     
-    private class SavestateCompressor implements Runnable{
-        
-        private static final int LAYER_BG_LOCATION = 3,
-            LAYER_FG_LOCATION = LAYER_BG_LOCATION + 32 * 32,
-            LAYER_FG_END = LAYER_FG_LOCATION + 32 * 32;
-        
-        private final Stack<TreeNode<byte[]>> uncompressedSavestates;
-        private final ByteList list;
-        
-        private final Thread thread;
-        
-        void add(TreeNode<byte[]> n){
-            uncompressedSavestates.add(n);
-            synchronized(thread) {
-                thread.notify();
-            }
-        }
-        
-        @Override
-        public void run(){
-            while (true) {
-                try {
-                    if (uncompressedSavestates.isEmpty()) {
-                        synchronized (thread) {
-                            thread.wait();
-                        }
-                    }
-                    else {
-                        compress(uncompressedSavestates.pop());
-                    }
-                }
-                catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-        
-        private void rleCompress(byte[] uncompressed, ByteList out, int startIndex, int length){
-            int lastOrdinal = uncompressed[startIndex];
-            int ordinal;
-            int copyCount = -1;
-            for (int i = startIndex; i < startIndex + length; i++) {
-                ordinal = uncompressed[i];
-                if (ordinal == lastOrdinal){
-                    if (copyCount == 255){
-                        out.add(RLE_MULTIPLE);
-                        out.add(copyCount);
-                        copyCount = 0;
-                        out.add(ordinal);
-                    }
-                    else copyCount++;
-                }
-                else {
-                    if (copyCount != 0){
-                        out.add(RLE_MULTIPLE);
-                        out.add(copyCount);
-                    }
-                    out.add(lastOrdinal);
-                    copyCount = 0;
-                    lastOrdinal = ordinal;
-                }
-            }
-            if (copyCount != 0){
-                out.add(RLE_MULTIPLE);
-                out.add(copyCount);
-            }
-            out.add(lastOrdinal);
-            out.add(RLE_END);
-        }
-        
-        private void compress(TreeNode<byte[]> n){
-            list.clear();
-            byte[] uncompressedState = n.getData();
-            rleCompress(uncompressedState, list, LAYER_BG_LOCATION, 32*32);
-            rleCompress(uncompressedState, list, LAYER_FG_LOCATION, 32*32);
-            byte[] out = new byte[uncompressedState.length - 2 * 32 * 32 + list.size()];
-            out[0] = COMPRESSED;
-            out[1] = uncompressedState[1];
-            out[2] = uncompressedState[2];
-            list.copy(out, 3);
-            System.arraycopy(uncompressedState, LAYER_FG_END, out, 3+list.size(), uncompressedState.length - 2 * 32 * 32 - 3);
-            n.setData(out);
-        }
-        
-        SavestateCompressor(){
-            uncompressedSavestates = new Stack<>();
-            list = new ByteList();
-            thread = new Thread(() -> run());
-            thread.setPriority(Thread.MIN_PRIORITY);
-            thread.start();
-        }
-        
-    }
-    
 }
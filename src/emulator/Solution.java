@@ -10,7 +10,7 @@ import util.ByteList;
 import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
 
-import static emulator.SuperCC.CHIP_RELATIVE_CLICK;
+import static emulator.Emulator.CHIP_RELATIVE_CLICK;
 
 public class Solution{
 
@@ -34,11 +34,11 @@ public class Solution{
         return json;
     }
     
-    public void load(SuperCC emulator){
+    public void load(Emulator emulator){
         load(emulator, TickFlags.PRELOADING);
     }
     
-    public void load(SuperCC emulator, TickFlags tickFlags){
+    public void load(Emulator emulator, TickFlags tickFlags){
         emulator.loadLevel(emulator.getLevel().getLevelNumber(), rngSeed, step, false);
         Level level = emulator.getLevel();
         try{
@@ -67,10 +67,10 @@ public class Solution{
         catch (Exception e){
             emulator.throwError("Something went wrong:\n"+e.getMessage());
         }
-        emulator.getMainWindow().repaint(level, true);
+        emulator.repaint(true);
     }
     
-    public void loadMoves(SuperCC emulator, TickFlags tickFlags, boolean repaint){
+    public void loadMoves(Emulator emulator, TickFlags tickFlags, boolean repaint){
         Level level = emulator.getLevel();
         try{
             for (int move = 0; move < halfMoves.length; move++){
@@ -98,9 +98,63 @@ public class Solution{
         catch (Exception e){
             emulator.throwError("Something went wrong:\n"+e.getMessage());
         }
-        if (repaint) emulator.getMainWindow().repaint(level, true);
+        if (repaint) emulator.repaint(true);
     }
-    
+
+    /**
+     * Play the solution on a level without saving or repainting. The level
+     * should already be in its starting state. Since this does not go through
+     * the emulator, several threads can play the same solution at once as long
+     * as each of them has its own level.
+     * @param level The level to play the solution on
+     */
+    public void loadMoves(Level level){
+        loadMoves(level, 0);
+    }
+
+    /**
+     * Play the rest of the solution on a level, like loadMoves(Level).
+     * @param level The level to play the solution on, in the state it is in
+     *              just before firstMove
+     * @param firstMove The index in halfMoves to start from, as returned by
+     *                  loadMove
+     */
+    public void loadMoves(Level level, int firstMove){
+        for (int move = firstMove; move < halfMoves.length; ){
+            move = loadMove(level, move);
+            if (level.getChip().isDead()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Play a single move of the solution on a level. A click takes up three
+     * entries of halfMoves, and a move that ticks twice skips the next one.
+     * @param level The level to play the move on
+     * @param move The index of the move in halfMoves
+     * @return The index of the next move
+     */
+    public int loadMove(Level level, int move){
+        byte b = halfMoves[move];
+        if (b == CHIP_RELATIVE_CLICK){
+            int x = halfMoves[++move] - 9;
+            int y = halfMoves[++move] - 9;
+            if (x == 0 && y == 0){                              // idk about this but it fixes thief street
+                b = '-';
+            }
+            else {
+                Position chipPosition = level.getChip().getPosition();
+                Position clickPosition = chipPosition.add(x, y);
+                level.setClick(clickPosition.getIndex());
+                b = clickPosition.clickByte(chipPosition);
+            }
+        }
+        boolean tickedTwice = Emulator.tick(level, b, true);
+        if (tickedTwice) move++;
+        return move + 1;
+    }
+
     private static byte[] succToHalfMoves(byte[] succMoves){
         ByteArrayOutputStream writer = new ByteArrayOutputStream();
         for (byte b : succMoves){
@@ -0,0 +1,111 @@
+package emulator;
+
+import java.util.Arrays;
+
+import static emulator.SavestateCodec.*;
+import static game.SaveState.*;
+
+/**
+ * The XOR savestate format. Everything after chip is XORed with the parent
+ * savestate, which leaves mostly zeroes, and then packed into runs:
+ * XOR, chip (2 bytes), uncompressed length (2 bytes), followed by runs
+ * until the uncompressed length is reached. A run starts with a byte t. If
+ * t < 0x80 it is followed by t+1 literal XORed bytes, otherwise it stands
+ * for (t & 0x7F) + 1 zeroes.
+ * <p>
+ * Unlike DELTA this also shrinks the creature lists, traps and the other
+ * values after the layers, as most of them do not change every move.
+ * Bytes past the end of the parent savestate are XORed with 0.
+ * </p>
+ */
+class XorCodec implements SavestateCodec {
+    
+    private static final int MAX_RUN = 0x80;
+    
+    @Override
+    public byte getVersion() {
+        return game.SaveState.XOR;
+    }
+    
+    @Override
+    public boolean usesParent() {
+        return true;
+    }
+    
+    @Override
+    public byte[] encode(byte[] state, byte[] parentState) {
+        if (parentState == null) return null;
+        int length = state.length;
+        byte[] out = new byte[5 + length + length / MAX_RUN + 1];
+        out[0] = game.SaveState.XOR;
+        out[1] = state[1];
+        out[2] = state[2];
+        out[3] = (byte) (length >>> 8);
+        out[4] = (byte) length;
+        int j = 5;
+        int i = 3;
+        while (i < length) {
+            int start = i;
+            if (xor(state, parentState, i) == 0) {
+                while (i < length && i - start < MAX_RUN && xor(state, parentState, i) == 0) i++;
+                out[j++] = (byte) (0x80 | (i - start - 1));
+            }
+            else {
+                // Single zeroes are cheaper to keep in a literal run than to split it
+                while (i < length && i - start < MAX_RUN
+                    && (xor(state, parentState, i) != 0 || (i + 1 < length && xor(state, parentState, i + 1) != 0))) i++;
+                out[j++] = (byte) (i - start - 1);
+                for (int k = start; k < i; k++) out[j++] = xor(state, parentState, k);
+            }
+        }
+        if (j >= length / 2) return null;
+        return Arrays.copyOf(out, j);
+    }
+    
+    @Override
+    public byte[] decode(byte[] data, byte[] parentState) {
+        int length = ((data[3] & 0xFF) << 8) | (data[4] & 0xFF);
+        byte[] out = new byte[length];
+        out[0] = UNCOMPRESSED;
+        out[1] = data[1];
+        out[2] = data[2];
+        int i = 3;
+        int j = 5;
+        while (i < length) {
+            int t = data[j++] & 0xFF;
+            int end = i + (t & 0x7F) + 1;
+            if (t >= 0x80) {
+                int copyEnd = Math.min(end, parentState.length);
+                if (i < copyEnd) System.arraycopy(parentState, i, out, i, copyEnd - i);
+                i = end;
+            }
+            else {
+                for (; i < end; i++) out[i] = (byte) (data[j++] ^ (i < parentState.length ? parentState[i] : 0));
+            }
+        }
+        return out;
+    }
+    
+    @Override
+    public byte[] decodeInto(byte[] data, byte[] parentState) {
+        int length = ((data[3] & 0xFF) << 8) | (data[4] & 0xFF);
+        if (length != parentState.length) return decode(data, parentState);
+        parentState[1] = data[1];
+        parentState[2] = data[2];
+        int i = 3;
+        int j = 5;
+        while (i < length) {
+            int t = data[j++] & 0xFF;
+            int end = i + (t & 0x7F) + 1;
+            if (t >= 0x80) i = end;
+            else for (; i < end; i++) parentState[i] ^= data[j++];
+        }
+        return parentState;
+    }
+    
+    private static byte xor(byte[] state, byte[] parentState, int i) {
+        if (i >= parentState.length) return state[i];
+        return (byte) (state[i] ^ parentState[i]);
+    }
+    
+}
@@ -1,12 +1,16 @@
 package game;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Spliterator;
 import java.util.function.Consumer;
 
 public class ByteLayer implements Layer {
     
-    private final byte[] layer;
+    private byte[] layer;
+    private boolean shared;                                 // layer is also used by a fork
+    private final long[] dirtyTiles = new long[32*32/64];
+    private long hash;
     
     public Tile get(int i){
         if (i >= 0 && i < 32*32) return Tile.fromOrdinal(layer[i]);
@@ -18,7 +22,13 @@ public class ByteLayer implements Layer {
     }
     
     public void set(int i, Tile t){
-        layer[i] = (byte) t.ordinal();
+        byte b = (byte) t.ordinal();
+        if (layer[i] != b) {
+            if (shared) unshare();
+            hash ^= Zobrist.tileKey(i, layer[i] & 0xFF) ^ Zobrist.tileKey(i, b & 0xFF);
+            layer[i] = b;
+            dirtyTiles[i >>> 6] |= 1L << i;
+        }
     }
     
     public void set(Position p, Tile t){
@@ -38,11 +48,49 @@ public class ByteLayer implements Layer {
     }
     
     public void load(byte[] b) {
-        System.arraycopy(b, 0, layer, 0, layer.length);
+        int n = layer.length;
+        int i = Arrays.mismatch(layer, 0, n, b, 0, n);
+        if (i >= 0 && shared) unshare();
+        while (i >= 0) {
+            hash ^= Zobrist.tileKey(i, layer[i] & 0xFF) ^ Zobrist.tileKey(i, b[i] & 0xFF);
+            layer[i] = b[i];
+            dirtyTiles[i >>> 6] |= 1L << i;
+            int next = Arrays.mismatch(layer, i + 1, n, b, i + 1, n);
+            i = next < 0 ? -1 : i + 1 + next;
+        }
+    }
+    
+    public void takeDirtyTiles(long[] dirtyTiles) {
+        for (int i = 0; i < this.dirtyTiles.length; i++) {
+            dirtyTiles[i] |= this.dirtyTiles[i];
+            this.dirtyTiles[i] = 0;
+        }
+    }
+    
+    public long getHash() {
+        return hash;
+    }
+    
+    public Layer fork() {
+        shared = true;
+        return new ByteLayer(layer, hash);
+    }
+    
+    private void unshare() {
+        layer = layer.clone();
+        shared = false;
+    }
+    
+    private ByteLayer(byte[] layer, long hash) {
+        this.layer = layer;
+        this.hash = hash;
+        shared = true;
+        Arrays.fill(dirtyTiles, -1L);
     }
     
     public ByteLayer(byte[] layer){
         this.layer = layer;
+        hash = Zobrist.layerHash(layer);
     }
     
     public Iterator<Tile> iterator() {
@@ -9,7 +9,7 @@ public class Cheats {
     // Button related cheats
     
     public void pressGreenButton() {
-        new GreenButton(null).press(level);
+        new GreenButton(-1).press(level);
     }
     public void pressGreenButton(GreenButton button) {
         button.press(level);
@@ -21,7 +21,7 @@ public class Cheats {
     }
     public void clone(Position clonerPosition) {
         level.getMonsterList().initialise();
-        level.getMonsterList().addClone(clonerPosition);
+        level.getMonsterList().addClone(clonerPosition.getIndex());
         level.getMonsterList().finalise();
     }
     public void pressBrownButton(BrownButton button) {
@@ -29,13 +29,13 @@ public class Cheats {
     }
     public void setTrap(Position trapPosition, boolean open) {
         for (int i = 0; i < level.getBrownButtons().length; i++) {
-            if (level.getBrownButtons()[i].getTargetPosition().equals(trapPosition)) {
+            if (level.getBrownButtons()[i].getTargetIndex() == trapPosition.getIndex()) {
                 level.getOpenTraps().set(i, open);
             }
         }
     }
     public void pressBlueButton() {
-        new BlueButton(null).press(level);
+        new BlueButton(-1).press(level);
     }
     public void pressBlueButton(BlueButton button) {
         button.press(level);
@@ -47,22 +47,22 @@ public class Cheats {
         if (button instanceof BlueButton) button.press(level);
     }
     public void pressButton(Position position) {
-        Button button = level.getButton(position);
+        Button button = level.getButton(position.getIndex());
         if (button != null) pressButton(button);
     }
     
     // Monster related cheats
     
     public void setDirection(Creature creature, Direction direction) {
-        level.popTile(creature.getPosition());
+        level.popTile(creature.getIndex());
         if (creature.getCreatureType() == CreatureID.BLOB) creature.setNextMoveDirectionCheat(direction);
         creature.setDirection(direction);
-        level.insertTile(creature.getPosition(), creature.toTile());
+        level.insertTile(creature.getIndex(), creature.toTile());
     }
     public void setPosition(Creature creature, Position position) {
-        level.popTile(creature.getPosition());
-        creature.getPosition().setIndex(position.getIndex());
-        level.insertTile(creature.getPosition(), creature.toTile());
+        level.popTile(creature.getIndex());
+        creature.setPosition(position.getIndex());
+        level.insertTile(creature.getIndex(), creature.toTile());
     }
     public void setSliding(Creature creature, boolean sliding) {
         creature.setSliding(sliding, level);
@@ -72,17 +72,17 @@ public class Cheats {
         creature.kill();
         level.getSlipList().remove(creature);
         level.getMonsterList().numDeadMonsters++;
-        level.popTile(creature.getPosition());
+        level.popTile(creature.getIndex());
         level.getMonsterList().finalise();
     }
     public void reviveChip() {
         level.getChip().setCreatureType(CreatureID.CHIP);
-        level.getLayerFG().set(level.getChip().getPosition(), Tile.CHIP_DOWN);
+        level.getLayerFG().set(level.getChip().getIndex(), Tile.CHIP_DOWN);
     }
     public void moveChip(Position position) {
-        level.popTile(level.getChip().getPosition());
-        level.getChip().getPosition().setIndex(position.getIndex());
-        level.insertTile(position, level.getChip().toTile());
+        level.popTile(level.getChip().getIndex());
+        level.getChip().setPosition(position.getIndex());
+        level.insertTile(position.getIndex(), level.getChip().toTile());
     }
     
     // Layer related cheats
@@ -94,10 +94,10 @@ public class Cheats {
         level.getLayerBG().set(position, tile);
     }
     public void popTile(Position position) {
-        level.popTile(position);
+        level.popTile(position.getIndex());
     }
     public void insertTile(Position position, Tile tile) {
-        level.insertTile(position, tile);
+        level.insertTile(position.getIndex(), tile);
     }
     
     // Level related cheats
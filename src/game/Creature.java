@@ -2,8 +2,6 @@ package game;
 
 import game.button.*;
 
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 
 import static game.CreatureID.BLOCK;
@@ -20,10 +18,11 @@ import static game.Tile.*;
  */
 public class Creature{
 
-    private Position position;
+    private int position;
     private CreatureID creatureType;
     private Direction direction;
     private boolean sliding;
+    private int enteredPosition;                            // Set by tryEnter, differs from the target for teleports
 
     private Direction nextMoveDirectionCheat = null;
 
@@ -35,40 +34,68 @@ public class Creature{
     protected void setDirection(Direction direction){
         this.direction = direction;
     }
-    protected void setPosition(Position position){ //So you can make a creature teleport 32 tiles at once to data reset properly
+    protected void setPosition(int position){ //So you can make a creature teleport 32 tiles at once to data reset properly
         this.position = position;
     }
     
+    /*
+     * The arrays returned by getDirectionPriority and
+     * getSlideDirectionPriority are shared and must not be modified.
+     */
+    
+    // Indexed by creature type and direction. Only used for creatures whose
+    // moves do not depend on chip or the rng.
+    private static final Direction[][][] DIRECTION_PRIORITIES = new Direction[CreatureID.values().length][4][];
+    private static final Direction[][] SLIDING_DIRECTION_PRIORITIES = new Direction[4][];
+    
+    // Indexed by direction and the packed output of the rng permutation.
+    private static final int WALKER_TURNS = Direction.pack(TURN_LEFT, TURN_AROUND, TURN_RIGHT),
+                             BLOB_TURNS = Direction.pack(TURN_FORWARD, TURN_LEFT, TURN_AROUND, TURN_RIGHT);
+    private static final Direction[][][] WALKER_DIRECTION_PRIORITIES = new Direction[4][1 << 6][];
+    private static final Direction[][][] BLOB_DIRECTION_PRIORITIES = new Direction[4][1 << 8][];
+    
+    static {
+        for (Direction d : Direction.values()) {
+            int i = d.ordinal();
+            for (CreatureID c : CreatureID.values()) DIRECTION_PRIORITIES[c.ordinal()][i] = Direction.NONE;
+            DIRECTION_PRIORITIES[BUG.ordinal()][i] = d.turn(new Direction[] {TURN_LEFT, TURN_FORWARD, TURN_RIGHT, TURN_AROUND});
+            DIRECTION_PRIORITIES[FIREBALL.ordinal()][i] = d.turn(new Direction[] {TURN_FORWARD, TURN_RIGHT, TURN_LEFT, TURN_AROUND});
+            DIRECTION_PRIORITIES[PINK_BALL.ordinal()][i] = d.turn(new Direction[] {TURN_FORWARD, TURN_AROUND});
+            DIRECTION_PRIORITIES[GLIDER.ordinal()][i] = d.turn(new Direction[] {TURN_FORWARD, TURN_LEFT, TURN_RIGHT, TURN_AROUND});
+            DIRECTION_PRIORITIES[PARAMECIUM.ordinal()][i] = d.turn(new Direction[] {TURN_RIGHT, TURN_FORWARD, TURN_LEFT, TURN_AROUND});
+            DIRECTION_PRIORITIES[TANK_MOVING.ordinal()][i] = Direction.toArray(d);
+            SLIDING_DIRECTION_PRIORITIES[i] = d.turn(new Direction[] {TURN_FORWARD, TURN_AROUND});
+            for (int p = 0; p < 1 << 6; p++) {
+                WALKER_DIRECTION_PRIORITIES[i][p] = d.turn(new Direction[] {TURN_FORWARD,
+                    Direction.unpack(p, 0), Direction.unpack(p, 1), Direction.unpack(p, 2)});
+            }
+            for (int p = 0; p < 1 << 8; p++) {
+                BLOB_DIRECTION_PRIORITIES[i][p] = d.turn(new Direction[] {
+                    Direction.unpack(p, 0), Direction.unpack(p, 1), Direction.unpack(p, 2), Direction.unpack(p, 3)});
+            }
+        }
+    }
+    
     Direction[] getDirectionPriority(Creature chip, RNG rng){
         if (nextMoveDirectionCheat != null) {
-            Direction[] directions = new Direction[] {nextMoveDirectionCheat};
+            Direction[] directions = Direction.toArray(nextMoveDirectionCheat);
             nextMoveDirectionCheat = null;
             if (creatureType == WALKER || creatureType == BLOB) rng.random4();
             return directions;
         }
-        if (isSliding()) return direction.turn(new Direction[] {TURN_FORWARD, TURN_AROUND});
+        if (isSliding()) return SLIDING_DIRECTION_PRIORITIES[direction.ordinal()];
         switch (creatureType){
-            case BUG: return direction.turn(new Direction[] {TURN_LEFT, TURN_FORWARD, TURN_RIGHT, TURN_AROUND});
-            case FIREBALL: return direction.turn(new Direction[] {TURN_FORWARD, TURN_RIGHT, TURN_LEFT, TURN_AROUND});
-            case PINK_BALL: return direction.turn(new Direction[] {TURN_FORWARD, TURN_AROUND});
-            case TANK_STATIONARY: return new Direction[] {};
-            case GLIDER: return direction.turn(new Direction[] {TURN_FORWARD, TURN_LEFT, TURN_RIGHT, TURN_AROUND});
-            case TEETH: return position.seek(chip.position);
-            case WALKER:
-                Direction[] directions = new Direction[] {TURN_LEFT, TURN_AROUND, TURN_RIGHT};
-                rng.randomPermutation3(directions);
-                return direction.turn(new Direction[] {TURN_FORWARD, directions[0], directions[1], directions[2]});
-            case BLOB:
-                directions = new Direction[] {TURN_FORWARD, TURN_LEFT, TURN_AROUND, TURN_RIGHT};
-                rng.randomPermutation4(directions);
-                return direction.turn(directions);
-            case PARAMECIUM: return direction.turn(new Direction[] {TURN_RIGHT, TURN_FORWARD, TURN_LEFT, TURN_AROUND});
-            case TANK_MOVING: return new Direction[] {getDirection()};
-            default: return new Direction[] {};
+            case TEETH: return Position.seek(position, chip.position);
+            case WALKER: return WALKER_DIRECTION_PRIORITIES[direction.ordinal()][rng.randomPermutation3(WALKER_TURNS)];
+            case BLOB: return BLOB_DIRECTION_PRIORITIES[direction.ordinal()][rng.randomPermutation4(BLOB_TURNS)];
+            default: return DIRECTION_PRIORITIES[creatureType.ordinal()][direction.ordinal()];
         }
     }
     public Direction[] seek(Position position){
-        return this.position.seek(position);
+        return getPosition().seek(position);
+    }
+    Direction[] seek(int position){
+        return Position.seek(this.position, position);
     }
     
     private static Direction applySlidingTile(Direction direction, Tile tile, RNG rng){
@@ -106,19 +133,18 @@ public class Creature{
     }
     Direction[] getSlideDirectionPriority(Tile tile, RNG rng, boolean changeOnRFF){
         if (nextMoveDirectionCheat != null) {
-            Direction[] directions = new Direction[] {nextMoveDirectionCheat};
+            Direction[] directions = Direction.toArray(nextMoveDirectionCheat);
             nextMoveDirectionCheat = null;
             return directions;
         }
         if (tile.isIce() || (creatureType.isChip() && tile == TELEPORT)){
-            Direction[] directions = direction.turn(new Direction[] {TURN_FORWARD, TURN_AROUND});
-            directions[0] = applySlidingTile(directions[0], tile, rng);
-            directions[1] = applySlidingTile(directions[1], tile, rng);
-            return directions;
+            Direction forward = applySlidingTile(direction, tile, rng);
+            Direction back = applySlidingTile(direction.turn(TURN_AROUND), tile, rng);
+            return Direction.pair(forward, back);
         }
-        else if (tile == TELEPORT) return new Direction[] {direction};
-        else if (tile == FF_RANDOM && !changeOnRFF) return new Direction[] {direction};
-        else return new Direction[] {applySlidingTile(getDirection(), tile, rng)};
+        else if (tile == TELEPORT) return Direction.toArray(direction);
+        else if (tile == FF_RANDOM && !changeOnRFF) return Direction.toArray(direction);
+        else return Direction.toArray(applySlidingTile(getDirection(), tile, rng));
     }
     
     public Direction getNextMoveDirectionCheat() {
@@ -147,6 +173,9 @@ public class Creature{
     // Position-related methods
 
     public Position getPosition() {
+        return new Position(position);
+    }
+    public int getIndex() {
         return position;
     }
     public void turn (Direction turn) {
@@ -199,11 +228,11 @@ public class Creature{
     }
     
     
-    private void teleport(Direction direction, Level level, Position position, List<Button> pressedButtons) {
+    private int teleport(Direction direction, Level level, int position, List<Button> pressedButtons) {
         int portalIndex;
         for (portalIndex = 0; true; portalIndex++){
-            if (portalIndex >= level.getPortals().length) return;
-            if (level.getPortals()[portalIndex].equals(position)){
+            if (portalIndex >= level.getPortals().length) return position;
+            if (level.getPortals()[portalIndex] == position){
                 break;
             }
         }
@@ -212,26 +241,24 @@ public class Creature{
         do{
             i--;
             if (i < 0) i += l;
-            position.setIndex(level.getPortals()[i].getIndex());
+            position = level.getPortals()[i];
             if (level.layerFG.get(position) != TELEPORT) continue;
-            Position exitPosition = position.move(direction);
-            if (exitPosition.getX() < 0 || exitPosition.getX() > 31 ||
-                exitPosition.getY() < 0 || exitPosition.getY() > 31) continue;
+            if (Position.isAtEdge(position, direction)) continue;
+            int exitPosition = Position.move(position, direction);
             Tile exitTile = level.layerFG.get(exitPosition);
             if (!creatureType.isChip() && exitTile.isChip()) exitTile = level.layerBG.get(exitPosition);
             if (creatureType.isChip() && exitTile.isTransparent()) exitTile = level.layerBG.get(exitPosition);
             if (creatureType.isChip() && exitTile == Tile.BLOCK){
                 Creature block = new Creature(direction, BLOCK, exitPosition);
                 for (Creature m : level.slipList) {
-                    if (m.position.equals(exitPosition)){
+                    if (m.position == exitPosition){
                         block = m;
                         break;
                     }
                 }
                 if (canEnter(direction, level.layerBG.get(exitPosition), level) && block.canLeave(direction, level.layerBG.get(exitPosition), level)) {
-                    Position blockPushPosition = exitPosition.move(direction);
-                    if (blockPushPosition.getX() < 0 || blockPushPosition.getX() > 31 ||
-                        blockPushPosition.getY() < 0 || blockPushPosition.getY() > 31) continue;
+                    if (Position.isAtEdge(exitPosition, direction)) continue;
+                    int blockPushPosition = Position.move(exitPosition, direction);
                     if (block.canEnter(direction, level.layerFG.get(blockPushPosition), level)){
                         if (block.tryMove(direction, level, false, pressedButtons)) break;
                     }
@@ -241,9 +268,14 @@ public class Creature{
             if (canEnter(direction, exitTile, level)) break;
         }
         while (i != portalIndex);
+        return position;
     }
     
-    private boolean canLeave(Direction direction, Tile tile, Level level){
+    /**
+     * Check whether this creature can move off a tile in a direction. This
+     * does not change anything.
+     */
+    public boolean canLeave(Direction direction, Tile tile, Level level){
         switch (tile){
             case THIN_WALL_UP: return direction != UP;
             case THIN_WALL_RIGHT: return direction != RIGHT;
@@ -254,7 +286,12 @@ public class Creature{
             default: return true;
         }
     }
-    boolean canEnter(Direction direction, Tile tile, Level level){
+    /**
+     * Check whether this creature can move onto a tile in a direction. This
+     * does not change anything, so tiles that kill the creature or take its
+     * items count as enterable.
+     */
+    public boolean canEnter(Direction direction, Tile tile, Level level){
         switch (tile) {
             case FLOOR: return true;
             case WALL: return false;
@@ -335,7 +372,7 @@ public class Creature{
             case CHIP_DOWN: return !creatureType.isChip();
         }
     }
-    private boolean tryEnter(Direction direction, Level level, Position newPosition, Tile tile, List<Button> pressedButtons){
+    private boolean tryEnter(Direction direction, Level level, int newPosition, Tile tile, List<Button> pressedButtons){
         sliding = false;
         switch (tile) {
             case FLOOR: return true;
@@ -387,7 +424,7 @@ public class Creature{
             case BLOCK:
                 if (creatureType.isChip()){
                     for (Creature m : level.slipList) {
-                        if (m.position.equals(newPosition)) {
+                        if (m.position == newPosition) {
                             if (m.direction == direction || m.direction.turn(TURN_AROUND) == direction) return false;
                             if (m.tryMove(direction, level, false, pressedButtons)){
                                 return tryEnter(direction, level, newPosition, level.layerFG.get(newPosition), pressedButtons);
@@ -521,7 +558,7 @@ public class Creature{
                 return true;
             case TELEPORT:
                 sliding = true;
-                teleport(direction, level, newPosition, pressedButtons);
+                enteredPosition = teleport(direction, level, newPosition, pressedButtons);
                 return true;
             case BOMB:
                 if (!creatureType.isChip()) {
@@ -638,26 +675,24 @@ public class Creature{
         boolean wasSliding = sliding;
         boolean isMonster = creatureType.isMonster();
         setDirection(direction);
-        Position newPosition;
-        if ((direction == LEFT && position.getX() == 0) ||
-            (direction == RIGHT && position.getX() == 31) ||
-            (direction == UP && position.getY() == 0) ||
-            (direction == DOWN && position.getY() == 31)) newPosition = new Position(-1);
-        else newPosition = position.move(direction);
+        int newPosition;
+        if (Position.isAtEdge(position, direction)) newPosition = -1;
+        else newPosition = Position.move(position, direction);
 
         if (!canLeave(direction, level.layerBG.get(position), level)) return false;
         Tile newTile = level.layerFG.get(newPosition);
         if (!creatureType.isChip() && newTile.isChip()) newTile = level.layerBG.get(newPosition);
         if (!(newTile.isTransparent() && !canEnter(direction, level.layerBG.get(newPosition), level))) {
     
+            enteredPosition = newPosition;
             if (tryEnter(direction, level, newPosition, newTile, pressedButtons)) {
                 level.popTile(position);
-                position = newPosition;
+                position = enteredPosition;
         
                 if (sliding && !creatureType.isMonster())
                     this.direction = applySlidingTile(direction, level.layerFG.get(position), level.rng);
         
-                if (!isDead()) level.insertTile(getPosition(), toTile());
+                if (!isDead()) level.insertTile(position, toTile());
                 else if (isMonster) {
                     level.monsterList.numDeadMonsters++;
                 }
@@ -680,51 +715,68 @@ public class Creature{
     }
 
     boolean tick(Direction[] directions, Level level, boolean slidingMove){
-        Creature oldCreature = clone();
-        if (!creatureType.isChip() && !isSliding()) CreatureList.direction = direction;
+        int oldPosition = position;
+        Direction oldDirection = direction;
+        boolean oldSliding = sliding;
+        if (!creatureType.isChip() && !isSliding()) level.monsterList.direction = direction;
+        List<Button> pressedButtons = level.pressedButtons;
         for (Direction newDirection : directions){
     
-            LinkedList<Button> pressedButtons = new LinkedList<>();
+            // Buttons pressed by nested ticks are added and removed above ours
+            int firstPressedButton = pressedButtons.size();
             
             if (tryMove(newDirection, level, slidingMove, pressedButtons)){
-                Iterator<Button> reverseIter = pressedButtons.descendingIterator();
-                while (reverseIter.hasNext()) reverseIter.next().press(level);
-                if (level.getLayerFG().get(oldCreature.position) == BUTTON_BROWN){
-                    BrownButton b = ((BrownButton) level.getButton(oldCreature.position, BrownButton.class));
-                    if (b != null && level.getLayerBG().get(b.getTargetPosition()) != TRAP && !b.getTargetPosition().equals(position)) {
+                for (int i = pressedButtons.size() - 1; i >= firstPressedButton; i--) pressedButtons.get(i).press(level);
+                while (pressedButtons.size() > firstPressedButton) pressedButtons.remove(pressedButtons.size() - 1);
+                if (level.getLayerFG().get(oldPosition) == BUTTON_BROWN){
+                    BrownButton b = ((BrownButton) level.getButton(oldPosition, BrownButton.class));
+                    if (b != null && level.getLayerBG().get(b.getTargetIndex()) != TRAP && b.getTargetIndex() != position) {
                         b.release(level);
                     }
                 }
-                if (level.getLayerFG().get(oldCreature.position) == TRAP){
-                    for (BrownButton b : level.getBrownButtons()) {
-                        if (b.getTargetPosition().equals(oldCreature.position) && level.getLayerFG().get(b.getButtonPosition()) == BUTTON_BROWN) {
+                if (level.getLayerFG().get(oldPosition) == TRAP && level.getTrapButtons(oldPosition) != null){
+                    for (BrownButton b : level.getTrapButtons(oldPosition)) {
+                        if (level.getLayerFG().get(b.getButtonIndex()) == BUTTON_BROWN) {
                             b.release(level);
                         }
                     }
                 }
                 if (!creatureType.isChip()) {
                     if (level.getLayerBG().get(position).isChip()) level.getChip().kill();
-                    if (!isSliding()) CreatureList.direction = newDirection;
+                    if (!isSliding()) level.monsterList.direction = newDirection;
                 }
                 return true;
             }
-            if (!creatureType.isChip() && !isSliding()) CreatureList.direction = newDirection;
+            if (!creatureType.isChip() && !isSliding()) level.monsterList.direction = newDirection;
+            while (pressedButtons.size() > firstPressedButton) pressedButtons.remove(pressedButtons.size() - 1);
             
         }
-        setSliding(oldCreature.sliding, level);
+        setSliding(oldSliding, level);
         if (creatureType.isTank() && !isSliding()) setCreatureType(TANK_STATIONARY);
-        if (!creatureType.isChip() &&!(creatureType.isBlock() && level.layerBG.get(position) == FF_RANDOM)) setDirection(oldCreature.direction);
+        if (!creatureType.isChip() &&!(creatureType.isBlock() && level.layerBG.get(position) == FF_RANDOM)) setDirection(oldDirection);
         else level.getLayerFG().set(position, toTile());
         return false;
     }
     
-    public Creature(Direction direction, CreatureID creatureType, Position position){
+    public Creature(Direction direction, CreatureID creatureType, int position){
         this.direction = direction;
         this.creatureType = creatureType;
         this.position = position;
     }
-    public Creature(Position position, Tile tile){
+    public Creature(int position, Tile tile){
+        set(position, tile);
+    }
+    public Creature(int bitMonster){
+        setBits(bitMonster);
+    }
+
+    /**
+     * Reinitialise this creature as the creature drawn by a tile.
+     */
+    void set(int position, Tile tile){
         this.position = position;
+        sliding = false;
+        nextMoveDirectionCheat = null;
         if (BLOCK_UP.ordinal() <= tile.ordinal() && tile.ordinal() <= BLOCK_RIGHT.ordinal()){
             direction = Direction.fromOrdinal((tile.ordinal() + 2) % 4);
             creatureType = BLOCK;
@@ -736,28 +788,35 @@ public class Creature{
         }
         if (creatureType == TANK_STATIONARY) creatureType = TANK_MOVING;
     }
-    public Creature(int bitMonster){
+
+    /**
+     * Reinitialise this creature from its bits.
+     * @see #bits()
+     */
+    void setBits(int bitMonster){
         direction = Direction.fromOrdinal(bitMonster >>> 14);
         creatureType = CreatureID.fromOrdinal((bitMonster >>> 10) & 0b1111);
-        if (creatureType == CHIP_SLIDING) sliding = true;
-        position = new Position(bitMonster & 0b00_0000_1111111111);
+        sliding = creatureType == CHIP_SLIDING;
+        nextMoveDirectionCheat = null;
+        position = bitMonster & 0b00_0000_1111111111;
     }
 
     public int bits(){
-        return direction.getBits() | creatureType.getBits() | position.getIndex();
+        return direction.getBits() | creatureType.getBits() | position;
     }
 
     @Override
     public Creature clone(){
         Creature c = new Creature(direction, creatureType, position);
         c.sliding = sliding;
+        c.nextMoveDirectionCheat = nextMoveDirectionCheat;
         return c;
     }
 
     @Override
     public String toString(){
-        if (creatureType == DEAD) return "Dead monster at position " + position;
-        return creatureType+" facing "+direction+" at position "+position;
+        if (creatureType == DEAD) return "Dead monster at position " + getPosition();
+        return creatureType+" facing "+direction+" at position "+getPosition();
     }
 
 }
@@ -1,6 +1,7 @@
 package game;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Spliterator;
@@ -10,37 +11,80 @@ import static game.CreatureID.*;
 import static game.Tile.*;
 
 /**
- * The monster list. The list attribute is the actual list.
+ * The monster list. The list attribute is the actual list, of which only the
+ * first size entries are in use.
+ * <p>
+ * Creature objects are recycled: monsters that are removed from the list are
+ * kept as spares and reused for clones, and loading a savestate reinitialises
+ * the existing objects from their bits instead of allocating new ones.
+ * </p>
  */
 public class CreatureList implements Iterable<Creature> {
     
     private Level level;
 
     private Creature[] list;
+    private int size;
+    private Creature[] spares = new Creature[16];
+    private int numSpares;
     int numDeadMonsters;
     private List<Creature> newClones;
-    public static Direction direction;
+    Direction direction;
     private boolean blobStep;
     
     public Creature creatureAt(Position position){
-        for (Creature c : list) if (c.getPosition().equals(position)) return c;
+        return creatureAt(position.getIndex());
+    }
+    
+    Creature creatureAt(int position){
+        for (int i = 0; i < size; i++) if (list[i].getIndex() == position) return list[i];
         return null;
     }
     
     public int size() {
-        return list.length;
+        return size;
     }
     
     public Creature get(int i) {
+        if (i >= size) throw new ArrayIndexOutOfBoundsException(i);
         return list[i];
     }
     
     public Creature[] getCreatures() {
-        return list;
+        return Arrays.copyOf(list, size);
     }
     
     public void setCreatures(Creature[] creatures) {
         list = creatures;
+        size = creatures.length;
+    }
+    
+    /**
+     * Replace the contents of the list with the creatures encoded in bits.
+     * The creatures currently in the list are reused.
+     * @param bits The creatures, as returned by Creature.bits()
+     */
+    void setCreatures(short[] bits) {
+        if (list.length < bits.length) list = Arrays.copyOf(list, bits.length);
+        for (int i = size; i < bits.length; i++) list[i] = newCreature();
+        for (int i = bits.length; i < size; i++){
+            addSpare(list[i]);
+            list[i] = null;
+        }
+        for (int i = 0; i < bits.length; i++) list[i].setBits(bits[i] & 0xFFFF);
+        size = bits.length;
+    }
+    
+    private Creature newCreature() {
+        if (numSpares == 0) return new Creature(Direction.UP, DEAD, 0);
+        Creature c = spares[--numSpares];
+        spares[numSpares] = null;
+        return c;
+    }
+    
+    private void addSpare(Creature c) {
+        if (numSpares == spares.length) spares = Arrays.copyOf(spares, numSpares * 2);
+        spares[numSpares++] = c;
     }
     
     void initialise() {
@@ -52,7 +96,8 @@ public class CreatureList implements Iterable<Creature> {
     void tick(){
 
         direction = null;
-        for(Creature monster : list){
+        for (int i = 0; i < size; i++){
+            Creature monster = list[i];
 
             if (monster.getCreatureType().isBlock()){
                 numDeadMonsters++;
@@ -65,7 +110,7 @@ public class CreatureList implements Iterable<Creature> {
             if (!monster.isSliding()){
                 if (monster.getNextMoveDirectionCheat() != null) direction = monster.getNextMoveDirectionCheat();
                 else if (!monster.getCreatureType().isAffectedByCB()) direction = monster.getDirection();
-                Tile bgTile = level.layerBG.get(monster.getPosition());
+                Tile bgTile = level.layerBG.get(monster.getIndex());
                 if (bgTile == CLONE_MACHINE) tickClonedMonster(monster);
                 else if (bgTile == TRAP) tickTrappedMonster(monster);
                 else tickFreeMonster(monster);
@@ -74,19 +119,18 @@ public class CreatureList implements Iterable<Creature> {
     }
 
     private void tickClonedMonster(Creature monster){
-        Position clonerPosition = monster.getPosition().clone();
+        int clonerPosition = monster.getIndex();
         Tile tile = monster.toTile();
         if (monster.getCreatureType().isBlock()) tile = Tile.fromOrdinal(BLOCK_UP.ordinal() + monster.getDirection().ordinal());
         if (!monster.getCreatureType().isAffectedByCB()) direction = monster.getDirection();
         if (direction == null) return;
         if (monster.getCreatureType() == BLOB){
-            Position p = monster.getPosition().clone();
             Direction[] directions = monster.getDirectionPriority(level.getChip(), level.rng);
             monster.tick(directions, level, false);
-            if (!monster.getPosition().equals(p)) level.insertTile(clonerPosition, tile);
+            if (monster.getIndex() != clonerPosition) level.insertTile(clonerPosition, tile);
         }
-        else if (monster.canEnter(direction, level.layerFG.get(monster.getPosition().move(direction)), level)){
-            if (monster.tick(new Direction[] {direction}, level, false)) level.insertTile(clonerPosition, tile);
+        else if (monster.canEnter(direction, level.layerFG.get(Position.move(monster.getIndex(), direction)), level)){
+            if (monster.tick(Direction.toArray(direction), level, false)) level.insertTile(clonerPosition, tile);
         }
     }
 
@@ -98,7 +142,7 @@ public class CreatureList implements Iterable<Creature> {
             Direction[] directions = monster.getDirectionPriority(level.getChip(), level.rng);
             monster.tick(directions, level, false);
         }
-        else monster.tick(new Direction[] {direction}, level, false);
+        else monster.tick(Direction.toArray(direction), level, false);
     }
 
     private void tickFreeMonster(Creature monster){
@@ -107,52 +151,52 @@ public class CreatureList implements Iterable<Creature> {
         if (!success && monster.getCreatureType() == TEETH && !monster.isSliding()){
             monster.setDirection(directionPriorities[0]);
             direction = directionPriorities[0];
-            level.layerFG.set(monster.getPosition(), monster.toTile());
+            level.layerFG.set(monster.getIndex(), monster.toTile());
         }
     }
 
-    public void addClone(Position position){
+    public void addClone(int position){
 
-        for (Creature c: list){
-            if (c.getPosition().equals(position)) return;
+        for (int i = 0; i < size; i++){
+            if (list[i].getIndex() == position) return;
         }
         for (Creature c: newClones){
-            if (c.getPosition().equals(position)) return;
+            if (c.getIndex() == position) return;
         }
 
         //Data resetting right here
-        if (position.y == 32) { //If the clone button's Y target is row 32 take over from normal code
+        if (Position.getY(position) == 32) { //If the clone button's Y target is row 32 take over from normal code
 
             //System.out.println(level.getLevelNumber());
             //System.out.println(level.getStartTime());
 
-            Position row0Position = new Position(position.x, 0);
+            int row0Position = Position.getX(position);
             if (level.getLayerBG().get(row0Position).isCreature()) { //if the background (buried) layer is a creature
                 Creature resetClone = new Creature(row0Position, level.layerBG.get(row0Position)); //Create a new variable for the creature
                 if (resetClone.getDirection()==Direction.UP) { //If the creature is facing up
-                    Position row31Position = new Position(position.x, 31); //Create a new variable for the creature's position
+                    int row31Position = 31 * 32 + Position.getX(position); //Create a new variable for the creature's position
                     Tile resetNewTile = level.layerFG.get(row31Position); //Makes it so that the next section checks X, 31 and not X, 0
                     if (resetClone.canEnter(direction, resetNewTile, level)) { //If the creature can clone to X, 31
                         Tile tile = resetClone.toTile(); //Needed to not cause tile erasure
                         resetClone.setPosition(row31Position); //Sets the clone's position to be on row 31
                         if (resetClone.getCreatureType().isBlock()) {
-                            if (level.getChip().getPosition().equals(row31Position)) {
+                            if (level.getChip().getIndex() == row31Position) {
                                 level.chip.kill();
                             }
                             level.insertTile(row31Position, tile);
                             if (level.getLayerBG().get(row31Position).isSliding()) { //Blocks now slide
                                 resetClone.setSliding(true);
-                                resetClone.tick(new Direction[]{Direction.DOWN}, level, false);
+                                resetClone.tick(Direction.toArray(Direction.DOWN), level, false);
                             }
                         }
                         else {
                             level.insertTile(row31Position, tile); //Clones them | fun fact: not having else here causes a crash in the most weird circumstances
-                            if (level.getChip().getPosition().equals(row31Position)) {
+                            if (level.getChip().getIndex() == row31Position) {
                                 level.chip.kill();
                             }
                             if (level.getLayerBG().get(row31Position).isSliding()) { //Bunch of stuff to make things slide correctly
                                 resetClone.setSliding(true);
-                                resetClone.tick(new Direction[]{Direction.DOWN}, level, false);
+                                resetClone.tick(Direction.toArray(Direction.DOWN), level, false);
                             }
                             else newClones.add(resetClone); //fun fact 2: the first part makes it so that the tile on X,31 isn't deleted
                         }
@@ -166,17 +210,19 @@ public class CreatureList implements Iterable<Creature> {
             Tile tile = level.layerFG.get(position);
             if (!tile.isCreature()) return;
 
-            Creature clone = new Creature(position, tile);
+            Creature clone = newCreature();
+            clone.set(position, tile);
             direction = clone.getDirection();
 
 
-            Position newPosition = clone.getPosition().move(direction);
+            int newPosition = Position.move(clone.getIndex(), direction);
             Tile newTile = level.layerFG.get(newPosition);
 
             if (clone.canEnter(direction, newTile, level) || newTile == clone.toTile()) {
                 if (clone.getCreatureType().isBlock()) tickClonedMonster(clone);
                 else newClones.add(clone);
             }
+            else addSpare(clone);
         }
     }
 
@@ -184,21 +230,24 @@ public class CreatureList implements Iterable<Creature> {
         
         if (numDeadMonsters == 0 && newClones.size() == 0) return;
 
-        int length = list.length - numDeadMonsters + newClones.size();
-        Creature[] newMonsterList = new Creature[length];
-
-        // Re-add everything except dead monsters. Non-sliding blocks count as dead.
+        // Keep everything except dead monsters, in place. Non-sliding blocks count as dead.
+        // Dead monsters are kept as spares, blocks may still be referenced by the slip list.
         int index = 0;
-        for (Creature monster : list){
-            if (!monster.isDead() && !(monster.getCreatureType().isBlock() && !monster.isSliding())) newMonsterList[index++] = monster;
+        for (int i = 0; i < size; i++){
+            Creature monster = list[i];
+            if (!monster.isDead() && !(monster.getCreatureType().isBlock() && !monster.isSliding())) list[index++] = monster;
+            else if (monster.isDead()) addSpare(monster);
         }
 
         // Add all cloned monsters
+        int length = index + newClones.size();
+        if (list.length < length) list = Arrays.copyOf(list, Math.max(length, 2 * list.length));
         for (Creature clone : newClones){
-            newMonsterList[index++] = clone;
+            list[index++] = clone;
         }
+        if (index < size) Arrays.fill(list, index, size, null);
 
-        list = newMonsterList;
+        size = index;
         newClones.clear();
         numDeadMonsters = 0;
 
@@ -211,13 +260,14 @@ public class CreatureList implements Iterable<Creature> {
 
     public CreatureList(Creature[] monsters){
         list = monsters;
+        size = monsters.length;
         numDeadMonsters = 0;
     }
     
     @Override
     public String toString(){
         StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < list.length; i++){
+        for (int i = 0; i < size; i++){
             sb.append(i+1);
             sb.append('\t');
             sb.append(list[i]);
@@ -234,7 +284,7 @@ public class CreatureList implements Iterable<Creature> {
             
             @Override
             public boolean hasNext() {
-                return i < list.length;
+                return i < size;
             }
     
             @Override
@@ -246,7 +296,7 @@ public class CreatureList implements Iterable<Creature> {
     
     @Override
     public void forEach(Consumer<? super Creature> action) {
-        for (Creature c : list) action.accept(c);
+        for (int i = 0; i < size; i++) action.accept(list[i]);
     }
     
     @Override
@@ -15,6 +15,50 @@ public enum Direction {
         return allDirections[ordinal];
     }
     
+    /*
+     * Shared arrays for the tick loop, so that it does not have to allocate a
+     * new array for every move. None of these may be modified.
+     */
+    static final Direction[] NONE = {};
+    private static final Direction[] NULL_SINGLETON = {null};
+    private static final Direction[][] singletons = new Direction[4][];
+    private static final Direction[][][] pairs = new Direction[4][4][];
+    static {
+        for (Direction d : allDirections) {
+            singletons[d.ordinal()] = new Direction[] {d};
+            for (Direction d2 : allDirections) pairs[d.ordinal()][d2.ordinal()] = new Direction[] {d, d2};
+        }
+    }
+    
+    /**
+     * @return A shared array containing only d, which may be null.
+     */
+    static Direction[] toArray(Direction d) {
+        if (d == null) return NULL_SINGLETON;
+        return singletons[d.ordinal()];
+    }
+    
+    /**
+     * @return A shared array containing d1 and d2.
+     */
+    static Direction[] pair(Direction d1, Direction d2) {
+        return pairs[d1.ordinal()][d2.ordinal()];
+    }
+    
+    /**
+     * Pack up to 16 directions into an int, 2 bits per direction. The first
+     * direction is stored in the lowest bits.
+     */
+    static int pack(Direction... directions) {
+        int packed = 0;
+        for (int i = 0; i < directions.length; i++) packed |= directions[i].ordinal() << (2 * i);
+        return packed;
+    }
+    
+    static Direction unpack(int packed, int i) {
+        return fromOrdinal((packed >>> (2 * i)) & 0b11);
+    }
+    
     private final int bits;
     
     int getBits() {
@@ -31,4 +31,29 @@ public interface Layer extends Iterable<Tile> {
     
     public void load(byte[] b);
     
+    /**
+     * Tiles are marked as dirty whenever they change, so that the GUI only
+     * needs to redraw those. This adds the dirty tiles to a bitset and
+     * clears them.
+     * @param dirtyTiles A bitset of 32*32 bits, stored as 16 longs. Bit i is
+     *                   set if tile i changed since the last call.
+     */
+    public void takeDirtyTiles(long[] dirtyTiles);
+    
+    /**
+     * The Zobrist hash of the layer: the xor of a key for every position and
+     * the tile on it. It is updated whenever a tile changes, so getting it
+     * takes constant time.
+     * @return The hash of the layer
+     */
+    public long getHash();
+    
+    /**
+     * A copy of the layer that shares its tiles with this one until either
+     * of them changes a tile, which then copies them first. All tiles of the
+     * copy start out dirty.
+     * @return An independent layer with the same tiles
+     */
+    public Layer fork();
+    
 }
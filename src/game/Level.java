@@ -1,10 +1,13 @@
 package game;
 
-import emulator.SuperCC;
 import game.button.*;
 import io.DatParser;
 
+import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 import static game.Tile.*;
 
@@ -13,27 +16,31 @@ public class Level extends SaveState {
     private static final int HALF_WAIT = 0, KEY = 1, CLICK_EARLY = 2, CLICK_LATE = 3;
     public static final byte UP = 'u', LEFT = 'l', DOWN = 'd', RIGHT = 'r', WAIT = '-';
 
-    public final int INITIAL_MONSTER_LIST_SIZE = monsterList.size();
-    public final Position INITIAL_MONSTER_POSITION =
-            (monsterList.size() == 0) ? null : monsterList.get(0).getPosition(); //this is needed or else half the levels aren't playable
-    public final int INITIAL_CHIPS_AMOUNT = chipsLeft;
+    public final int INITIAL_MONSTER_LIST_SIZE;
+    public final Position INITIAL_MONSTER_POSITION;     //this is needed or else half the levels aren't playable
+    public final int INITIAL_CHIPS_AMOUNT;
     final int LEVELSET_LENGTH;
 
     private int levelNumber, startTime;
     private final byte[] title, password, hint;
-    final Position[] toggleDoors, portals;
+    final int[] toggleDoors, portals;
     private GreenButton[] greenButtons;
     private RedButton[] redButtons;
     private BrownButton[] brownButtons;
     private BlueButton[] blueButtons;
+    private final Button[][] buttonsAt;
+    private final BrownButton[][] trapButtons;
     private int rngSeed;
     private Step step;
 
     private boolean ResetStep = false; //Stuff for data reset
-    private Position AutopsyPosition = new Position(22, 0);
+    private int AutopsyPosition = 22;
     
     public final Cheats cheats;
     
+    // Buttons pressed during a move, see Creature.tick
+    final List<Button> pressedButtons = new ArrayList<>();
+    
     public int getLevelNumber() {
         return levelNumber;
     }
@@ -49,10 +56,10 @@ public class Level extends SaveState {
     public byte[] getHint() {
         return hint;
     }
-    public Position[] getToggleDoors() {
+    public int[] getToggleDoors() {
         return toggleDoors;
     }
-    public Position[] getPortals() {
+    public int[] getPortals() {
         return portals;
     }
     public GreenButton[] getGreenButtons() {
@@ -70,6 +77,14 @@ public class Level extends SaveState {
     public int getRngSeed(){
         return rngSeed;
     }
+    /**
+     * @return The number of times the rng has advanced since its value was
+     * last set, by a savestate or a cheat
+     * @see RNG#getCalls()
+     */
+    public long getRngCalls(){
+        return rng.getCalls();
+    }
     public Step getStep(){
         return step;
     }
@@ -80,6 +95,15 @@ public class Level extends SaveState {
     public Layer getLayerFG() {
         return layerFG;
     }
+    /**
+     * Add the positions at which either layer changed since the last call
+     * to a bitset, and clear them. See Layer.takeDirtyTiles.
+     * @param dirtyTiles A bitset of 32*32 bits, stored as 16 longs
+     */
+    public void takeDirtyTiles(long[] dirtyTiles) {
+        layerBG.takeDirtyTiles(dirtyTiles);
+        layerFG.takeDirtyTiles(dirtyTiles);
+    }
     /**
      *
      * @return The current value of the timer that is displayed on screen.
@@ -98,6 +122,12 @@ public class Level extends SaveState {
         if (tickNumber == 0) return 9999;
         else return 9999 - tickNumber + 1;                     // The first tick does not change the timer
     }
+    /**
+     * @return The number of times tick() has been called on this level.
+     */
+    public int getTickNumber() {
+        return tickNumber;
+    }
     void setTimer(int n) {
         startTime = n + tickNumber - 1;
     }
@@ -169,18 +199,22 @@ public class Level extends SaveState {
     }
     
     public boolean isCompleted() {
-        return layerFG.get(chip.getPosition()) == EXITED_CHIP;
+        return layerFG.get(chip.getIndex()) == EXITED_CHIP;
     }
     
-    public Level(int levelNumber, byte[] title, byte[] password, byte[] hint, Position[] toggleDoors, Position[] portals,
+    public Level(int levelNumber, byte[] title, byte[] password, byte[] hint, int[] toggleDoors, int[] portals,
                  GreenButton[] greenButtons, RedButton[] redButtons,
-                 BrownButton[] brownButtons, BlueButton[] blueButtons, BitSet traps,
+                 BrownButton[] brownButtons, BlueButton[] blueButtons,
+                 Button[][] buttonsAt, BrownButton[][] trapButtons, BitSet traps,
                  Layer layerBG, Layer layerFG, CreatureList monsterList, SlipList slipList,
                  Creature chip, int time, int chips, RNG rng, int rngSeed, Step step, int levelsetLength){
         
         super(layerBG, layerFG, monsterList, slipList, chip,
               time, chips, new short[4], new byte[4], rng, NO_CLICK, traps);
         
+        this.INITIAL_MONSTER_LIST_SIZE = monsterList.size();
+        this.INITIAL_MONSTER_POSITION = (monsterList.size() == 0) ? null : monsterList.get(0).getPosition();
+        this.INITIAL_CHIPS_AMOUNT = chips;
         this.levelNumber = levelNumber;
         this.startTime = time;
         this.title = title;
@@ -192,6 +226,8 @@ public class Level extends SaveState {
         this.redButtons = redButtons;
         this.brownButtons = brownButtons;
         this.blueButtons = blueButtons;
+        this.buttonsAt = buttonsAt;
+        this.trapButtons = trapButtons;
         this.rngSeed = rngSeed;
         this.step = step;
         this.cheats = new Cheats(this);
@@ -201,39 +237,108 @@ public class Level extends SaveState {
         this.monsterList.setLevel(this);
     }
     
-    void popTile(Position position){
+    /**
+     * Make an independent copy of the level in its current state without
+     * going through a savestate, for trying out different moves from the
+     * same state.
+     * <p>
+     * The copy shares everything that does not change during play, such as
+     * the title and the button connections. Its layers share their tiles with
+     * this level until either level changes a tile, and the creatures are
+     * copied. Either level can then be ticked on its own, also on a different
+     * thread, as long as the two are not used at the same time while
+     * forking.
+     * </p>
+     * @return A copy of this level
+     */
+    public Level fork() {
+        // Sliding monsters are in both lists, and must be the same object in both copies
+        Map<Creature, Creature> copies = new IdentityHashMap<>(2 * this.slipList.size());
+        for (Creature c : this.slipList) copies.put(c, c.clone());
+        int size = monsterList.size();
+        Creature[] monsters = new Creature[size];
+        for (int i = 0; i < size; i++) {
+            Creature c = monsterList.get(i);
+            Creature copy = copies.isEmpty() ? null : copies.get(c);
+            monsters[i] = copy != null ? copy : c.clone();
+        }
+        SlipList slipList = new SlipList();
+        for (Creature c : this.slipList) slipList.add(copies.get(c));
+        return new Level(this, new CreatureList(monsters), slipList);
+    }
+    
+    private Level(Level level, CreatureList monsterList, SlipList slipList) {
+        super(level.layerBG.fork(), level.layerFG.fork(), monsterList, slipList, level.chip.clone(),
+              level.startTime, level.chipsLeft, level.keys.clone(), level.boots.clone(),
+              new RNG(level.rng), level.mouseClick, (BitSet) level.traps.clone());
+        this.tickNumber = level.tickNumber;
+        
+        this.INITIAL_MONSTER_LIST_SIZE = level.INITIAL_MONSTER_LIST_SIZE;
+        this.INITIAL_MONSTER_POSITION = level.INITIAL_MONSTER_POSITION;
+        this.INITIAL_CHIPS_AMOUNT = level.INITIAL_CHIPS_AMOUNT;
+        this.levelNumber = level.levelNumber;
+        this.startTime = level.startTime;
+        this.title = level.title;
+        this.password = level.password;
+        this.hint = level.hint;
+        this.toggleDoors = level.toggleDoors;
+        this.portals = level.portals;
+        this.greenButtons = level.greenButtons;
+        this.redButtons = level.redButtons;
+        this.brownButtons = level.brownButtons;
+        this.blueButtons = level.blueButtons;
+        this.buttonsAt = level.buttonsAt;
+        this.trapButtons = level.trapButtons;
+        this.rngSeed = level.rngSeed;
+        this.step = level.step;
+        this.ResetStep = level.ResetStep;
+        this.AutopsyPosition = level.AutopsyPosition;
+        this.cheats = new Cheats(this);
+        this.LEVELSET_LENGTH = level.LEVELSET_LENGTH;
+        
+        this.slipList.setLevel(this);
+        this.monsterList.setLevel(this);
+    }
+    
+    void popTile(int position){
         layerFG.set(position, layerBG.get(position));
         layerBG.set(position, FLOOR);
     }
-    void insertTile(Position position, Tile tile){
+    void insertTile(int position, Tile tile){
         Tile fgTile = layerFG.get(position);
         if (!(fgTile.equals(FLOOR) && !tile.isMonster())) layerBG.set(position, layerFG.get(position));
         layerFG.set(position, tile);
     }
     
-    Button getButton(Position position, Class buttonType) {
-        Button[] buttons;
-        if (buttonType.equals(GreenButton.class)) buttons = greenButtons;
-        else if (buttonType.equals(RedButton.class)) buttons = redButtons;
-        else if (buttonType.equals(BrownButton.class)) buttons = brownButtons;
-        else if (buttonType.equals(BlueButton.class)) buttons = blueButtons;
-        else throw new RuntimeException("Invalid class");
+    Button getButton(int position, Class buttonType) {
+        if (buttonType != GreenButton.class && buttonType != RedButton.class &&
+            buttonType != BrownButton.class && buttonType != BlueButton.class) throw new RuntimeException("Invalid class");
+        Button[] buttons = buttonsAt[position];
+        if (buttons == null) return null;
         for (Button b : buttons) {
-            if (b.getButtonPosition().equals(position)) return b;
+            if (b.getClass() == buttonType) return b;
         }
         return null;
     }
-    Button getButton(Position position) {
-        for (Button[] buttons : new Button[][] {greenButtons, redButtons, brownButtons, blueButtons}) {
-            for (Button b : buttons) {
-                if (b.getButtonPosition().equals(position)) return b;
-            }
-        }
-        return null;
+    Button getButton(int position) {
+        Button[] buttons = buttonsAt[position];
+        if (buttons == null) return null;
+        return buttons[0];
     }
-    boolean isTrapOpen(Position position) {
-        for (BrownButton b : brownButtons) {
-            if (b.getTargetPosition().equals(position) && b.isOpen(this)) return true;
+    
+    /**
+     * @param position The position of a trap
+     * @return The brown buttons connected to that position, or null if there
+     * are none
+     */
+    BrownButton[] getTrapButtons(int position) {
+        return trapButtons[position];
+    }
+    boolean isTrapOpen(int position) {
+        BrownButton[] buttons = trapButtons[position];
+        if (buttons == null) return false;
+        for (BrownButton b : buttons) {
+            if (b.isOpen(this)) return true;
         }
         return false;
     }
@@ -254,29 +359,29 @@ public class Level extends SaveState {
     
     private void moveChipSliding(){
         Direction direction = chip.getDirection();
-        Tile bgTile = layerBG.get(chip.getPosition());
-        if (bgTile.isFF()) chip.tick(new Direction[] {direction}, this, true);
+        Tile bgTile = layerBG.get(chip.getIndex());
+        if (bgTile.isFF()) chip.tick(Direction.toArray(direction), this, true);
         else chip.tick(chip.getSlideDirectionPriority(bgTile, rng, true), this, true);
     }
     
     private void moveChip(Direction[] directions){
-        Position oldPosition = chip.getPosition().clone();
+        int oldPosition = chip.getIndex();
         for (Direction direction : directions) {
             if (chip.isSliding()) {
-                if (!layerBG.get(chip.getPosition()).isFF()) continue;
+                if (!layerBG.get(chip.getIndex()).isFF()) continue;
                 if (direction == chip.getDirection()) continue;
             }
-            chip.tick(new Direction[] {direction}, this, false);
-            if (!chip.getPosition().equals(oldPosition)) break;
+            chip.tick(Direction.toArray(direction), this, false);
+            if (chip.getIndex() != oldPosition) break;
         }
     }
 
     private void finaliseTraps(){
         for (BrownButton b : brownButtons) {
-            if (layerBG.get(b.getButtonPosition()) == BUTTON_BROWN){
+            if (layerBG.get(b.getButtonIndex()) == BUTTON_BROWN){
                 traps.set(b.getTrapIndex(), true);
             }
-            else if (layerFG.get(b.getTargetPosition()) == TRAP){
+            else if (layerFG.get(b.getTargetIndex()) == TRAP){
                 traps.set(b.getTrapIndex(), false);
             }
         }
@@ -288,8 +393,8 @@ public class Level extends SaveState {
     }
     
     private boolean endTick() {
-        if (layerBG.get(chip.getPosition()).equals(EXIT)){
-            layerFG.set(chip.getPosition(), EXITED_CHIP);
+        if (layerBG.get(chip.getIndex()).equals(EXIT)){
+            layerFG.set(chip.getIndex(), EXITED_CHIP);
             chip.kill();
         }
         if (!ResetStep && (getLayerBG().get(AutopsyPosition).isCreature())) { //Gotta love data resetting
@@ -326,59 +431,60 @@ public class Level extends SaveState {
         if (chip.isSliding()) moveChipSliding();
         if (endTick()) return false;
         tickNumber++;
-        if (moveType == CLICK_EARLY) moveChip(chip.seek(new Position(mouseClick)));
+        if (moveType == CLICK_EARLY) moveChip(chip.seek(mouseClick));
         if (endTick()) return false;
         slipList.tick();
         if (endTick()) return false;
         if (moveType == KEY) moveChip(directions);
-        else if (moveType == CLICK_LATE) moveChip(chip.seek(new Position(mouseClick)));
+        else if (moveType == CLICK_LATE) moveChip(chip.seek(mouseClick));
         if (endTick()) return false;
 
         monsterList.finalise();
         finaliseTraps();
-        if (moveType == KEY || chip.getPosition().getIndex() == mouseClick) mouseClick = NO_CLICK;
+        if (moveType == KEY || chip.getIndex() == mouseClick) mouseClick = NO_CLICK;
     
         return moveType == KEY && !isHalfMove && !chip.isSliding();
     }
 
-    public void ResetData(Position position, Level level){ //Actual reset code for data reset
-        Position ChipPosition = getChip().getPosition(); //Gets Chip's Current position
-        if (position.x == 8) { //X reset
-            Position ChipXReset = new Position(0, ChipPosition.y); //prepares to set Chip's X position to 0
+    public void ResetData(int position, Level level){ //Actual reset code for data reset
+        int ChipPosition = getChip().getIndex(); //Gets Chip's Current position
+        int x = Position.getX(position); //The reset position is always on row 0
+        if (x == 8) { //X reset
+            int ChipXReset = ChipPosition - Position.getX(ChipPosition); //prepares to set Chip's X position to 0
             getChip().setPosition(ChipXReset); //sets Chip's X position to 0
-            layerBG.set(position, (Tile.fromOrdinal(ChipPosition.x))); //Doesn't need to be checked as co-cords are always within valid tile ranges
+            layerBG.set(position, (Tile.fromOrdinal(Position.getX(ChipPosition)))); //Doesn't need to be checked as co-cords are always within valid tile ranges
         }
-        if (position.x == 10) { //Y reset
-            Position ChipYReset = new Position(ChipPosition.x, 0); //prepares to set Chip's Y position to 0
+        if (x == 10) { //Y reset
+            int ChipYReset = Position.getX(ChipPosition); //prepares to set Chip's Y position to 0
             getChip().setPosition(ChipYReset); //sets Chip's Y position to 0
-            layerBG.set(position, (Tile.fromOrdinal(ChipPosition.y))); //Doesn't need to be checked as co-cords are always within valid tile ranges
+            layerBG.set(position, (Tile.fromOrdinal(Position.getY(ChipPosition)))); //Doesn't need to be checked as co-cords are always within valid tile ranges
         }
-        if (position.x == 12) { //Sliding state reset
+        if (x == 12) { //Sliding state reset
             if (chip.isSliding()) { //Is chip sliding?
                 chip.setSliding(false, level); //Stop Chip from sliding
                 layerBG.set(position, WALL); //Place a wall (1 for data)
             }
             else {layerBG.set(position, FLOOR);} //if Chip isn't sliding place a floor (0 for data)
         }
-        if (position.x == 14 || position.x == 18 || position.x == 20) { //Current keystroke's buffer, & x- and y-directions of the keystroke reset (SuCC doesn't measure this so i'm treating it as a constant 0)
+        if (x == 14 || x == 18 || x == 20) { //Current keystroke's buffer, & x- and y-directions of the keystroke reset (SuCC doesn't measure this so i'm treating it as a constant 0)
             layerBG.set(position, FLOOR);
         }
-        if (position.x == 22) { //Autopsy report reset
+        if (x == 22) { //Autopsy report reset
             if (chip.getCreatureType() == CreatureID.DEAD) {
                 chip.setCreatureType(CreatureID.CHIP); //If he's CHIP he's not DEAD
                 layerBG.set(position, FIRE); //In almost all situations where this is activated chip is killed by a block (due to the nature of blocks cloning instantly its usually only what can be used) which will place fire, so here i skip that and just place fire
             }
             else layerBG.set(position, FLOOR);
         }
-        if (position.x == 24) { //Sliding Direction (X) reset
+        if (x == 24) { //Sliding Direction (X) reset
             //if Chip is sliding horizontally immobilize him
             layerBG.set(position, FLOOR); //defaulting to floor for resets not coded yet
         }
-        if (position.x == 26) { //Sliding Direction (Y) reset
+        if (x == 26) { //Sliding Direction (Y) reset
             //if Chip is sliding vertically immobilize him
             layerBG.set(position, FLOOR); //defaulting to floor for resets not coded yet
         }
-        if (position.x == 28) { //amount of monsters in the monster list before the player starts playing the level reset
+        if (x == 28) { //amount of monsters in the monster list before the player starts playing the level reset
             if (INITIAL_MONSTER_LIST_SIZE<112) {
                 layerBG.set(position, (Tile.fromOrdinal(INITIAL_MONSTER_LIST_SIZE)));
             }
@@ -386,13 +492,13 @@ public class Level extends SaveState {
                 layerBG.set(position, WALL); //Everything beyond value 111 is not supported by SuCC and acts as a wall anyways
             }
         }
-        if (position.x == 30) { //coordinates (X) of the initial position of the first monster reset, grabs from final variables set up in the Level.java file
+        if (x == 30) { //coordinates (X) of the initial position of the first monster reset, grabs from final variables set up in the Level.java file
             layerBG.set(position, (Tile.fromOrdinal(INITIAL_MONSTER_POSITION.x))); //Doesn't need to be checked as co-cords are always within valid tile ranges
         }
-        if (position.x == 31) { //coordinates (Y) of the initial position of the first monster reset
+        if (x == 31) { //coordinates (Y) of the initial position of the first monster reset
             layerBG.set(position, (Tile.fromOrdinal(INITIAL_MONSTER_POSITION.y))); //Doesn't need to be checked as co-cords are always within valid tile ranges
         }
-        if (position.x == 0) { //Level Number reset
+        if (x == 0) { //Level Number reset
             int levelLowByte = getLevelNumber() & 0xFF;
             if (levelLowByte < 112) {
                 layerBG.set(position, Tile.fromOrdinal(levelLowByte)); //Doesn't need to be checked as co-cords are always within valid tile ranges
@@ -401,7 +507,7 @@ public class Level extends SaveState {
                 layerBG.set(position, WALL); //Everything beyond value 111 is not supported by SuCC and acts as a wall anyways
             }
         }
-        if (position.x == 1) { //Level Number reset
+        if (x == 1) { //Level Number reset
             int levelHighByte = (getLevelNumber() >> 8) & 0xFF; //(number >> 8) & 0xFF, (number & 0xFF), this splits into a high and low order byte for the first couple tiles, (number & 0xFF) is low order
             if (levelHighByte < 112) {
                 layerBG.set(position, Tile.fromOrdinal(levelHighByte)); //Doesn't need to be checked as co-cords are always within valid tile ranges
@@ -410,7 +516,7 @@ public class Level extends SaveState {
                 layerBG.set(position, WALL); //Everything beyond value 111 is not supported by SuCC and acts as a wall anyways
             }
         }
-        if (position.x == 2) { //Levelset length reset
+        if (x == 2) { //Levelset length reset
             int levelsetLowByte = (LEVELSET_LENGTH-1) & 0xFF;
             if (levelsetLowByte < 112) {
                 layerBG.set(position, Tile.fromOrdinal(levelsetLowByte)); //Doesn't need to be checked as co-cords are always within valid tile ranges
@@ -419,7 +525,7 @@ public class Level extends SaveState {
                 layerBG.set(position, WALL); //Everything beyond value 111 is not supported by SuCC and acts as a wall anyways
             }
         }
-        if (position.x == 3) { //Levelset length reset
+        if (x == 3) { //Levelset length reset
             int levelsetHighByte = ((LEVELSET_LENGTH-1) >> 8) & 0xFF; //(number >> 8) & 0xFF, (number & 0xFF), this splits into a high and low order byte for the first couple tiles, (number & 0xFF) is low order
             if (levelsetHighByte < 112) {
                 layerBG.set(position, Tile.fromOrdinal(levelsetHighByte)); //Doesn't need to be checked as co-cords are always within valid tile ranges
@@ -428,7 +534,7 @@ public class Level extends SaveState {
                 layerBG.set(position, WALL); //Everything beyond value 111 is not supported by SuCC and acts as a wall anyways
             }
         }
-        if (position.x == 4) { //Level time reset
+        if (x == 4) { //Level time reset
             if (getStartTime() < 0) {
                 layerBG.set(position, FLOOR); //timeless levels are given as negative values, MSCC puts them as 0 which is a floor
                 return;
@@ -442,7 +548,7 @@ public class Level extends SaveState {
                 layerBG.set(position, WALL); //Everything beyond value 111 is not supported by SuCC and acts as a wall anyways
             }
         }
-        if (position.x == 5) { //Level time reset
+        if (x == 5) { //Level time reset
             if (getStartTime() < 0) {
                 layerBG.set(position, FLOOR); //timeless levels are given as negative values, MSCC puts them as 0 which is a floor
                 return;
@@ -456,7 +562,7 @@ public class Level extends SaveState {
                 layerBG.set(position, WALL); //Everything beyond value 111 is not supported by SuCC and acts as a wall anyways
             }
         }
-        if (position.x == 6) { //Chips reset
+        if (x == 6) { //Chips reset
             int chipsLowByte = INITIAL_CHIPS_AMOUNT & 0xFF;
             if (chipsLowByte < 112) {
                 layerBG.set(position, Tile.fromOrdinal(chipsLowByte)); //Doesn't need to be checked as co-cords are always within valid tile ranges
@@ -465,7 +571,7 @@ public class Level extends SaveState {
                 layerBG.set(position, WALL); //Everything beyond value 111 is not supported by SuCC and acts as a wall anyways
             }
         }
-        if (position.x == 7) { //Chips reset
+        if (x == 7) { //Chips reset
             int chipsHighByte = (INITIAL_CHIPS_AMOUNT >> 8) & 0xFF; //(number >> 8) & 0xFF, (number & 0xFF), this splits into a high and low order byte for the first couple tiles, (number & 0xFF) is low order
             if (chipsHighByte < 112) {
                 layerBG.set(position, Tile.fromOrdinal(chipsHighByte)); //Doesn't need to be checked as co-cords are always within valid tile ranges
@@ -474,7 +580,7 @@ public class Level extends SaveState {
                 layerBG.set(position, WALL); //Everything beyond value 111 is not supported by SuCC and acts as a wall anyways
             }
         }
-        if (position.x == 9 || position.x == 11 || position.x == 13 || position.x == 15 || position.x == 16 || position.x == 17 ||position.x == 23 || position.x == 25 || position.x == 27 || position.x == 29) {
+        if (x == 9 || x == 11 || x == 13 || x == 15 || x == 16 || x == 17 ||x == 23 || x == 25 || x == 27 || x == 29) {
             layerBG.set(position, FLOOR); //defaulting to floor for resets either not coded or that always have a 0 value
         }
     }
@@ -62,6 +62,53 @@ public class Position {
         return p;
     }
     
+    /*
+     * The tick loop works on plain tile indices (y * 32 + x) instead of
+     * Position objects so that it does not allocate. These are the index
+     * versions of the methods above.
+     */
+    
+    public static int getX(int index){
+        return index & 0b11111;
+    }
+    public static int getY(int index){
+        return index >>> 5;
+    }
+    
+    /**
+     * @return true if moving from index in this direction would leave the
+     * 32x32 map
+     */
+    public static boolean isAtEdge(int index, Direction direction){
+        switch (direction){
+            case UP:    return getY(index) == 0;
+            case LEFT:  return getX(index) == 0;
+            case DOWN:  return getY(index) == 31;
+            case RIGHT: return getX(index) == 31;
+        }
+        return false;
+    }
+    
+    /**
+     * Like {@link #move(Direction)}, this does not check for the edge of the
+     * map.
+     */
+    public static int move(int index, Direction direction){
+        switch (direction){
+            case UP:    return index + MOVE_UP;
+            case LEFT:  return index + MOVE_LEFT;
+            case DOWN:  return index + MOVE_DOWN;
+            case RIGHT: return index + MOVE_RIGHT;
+        }
+        return index;
+    }
+    
+    public static Direction[] seek(int index, int seekedIndex){
+        int verticalDifference = getY(index) - getY(seekedIndex);
+        int horizontalDifference = getX(index) - getX(seekedIndex);
+        return seekDifference(verticalDifference, horizontalDifference);
+    }
+    
     public Position add(int x, int y){
         return new Position(this.x + x, this.y + y);
     }
@@ -97,20 +144,26 @@ public class Position {
     }
     
     public Direction[] seek(Position seekedPosition){
-        int verticalDifference = y - seekedPosition.y;
-        int horizontalDifference = x - seekedPosition.x;
-    
-        Direction verticalDirection = null;
-        if (verticalDifference > 0) verticalDirection = UP;
-        else if (verticalDifference < 0) verticalDirection = DOWN;
+        return seekDifference(y - seekedPosition.y, x - seekedPosition.x);
+    }
+    
+    // Indexed by the signs of the vertical and horizontal difference (+1) and
+    // by whether the vertical difference is at least as large.
+    private static final Direction[][][][] SEEK_DIRECTIONS = new Direction[3][3][2][];
+    static {
+        Direction[] verticalDirections = {DOWN, null, UP};
+        Direction[] horizontalDirections = {RIGHT, null, LEFT};
+        for (int v = 0; v < 3; v++) {
+            for (int h = 0; h < 3; h++) {
+                SEEK_DIRECTIONS[v][h][0] = new Direction[] {horizontalDirections[h], verticalDirections[v]};
+                SEEK_DIRECTIONS[v][h][1] = new Direction[] {verticalDirections[v], horizontalDirections[h]};
+            }
+        }
+    }
     
-        Direction horizontalDirection = null;
-        if (horizontalDifference > 0) horizontalDirection = LEFT;
-        else if (horizontalDifference < 0) horizontalDirection = RIGHT;
-        
-        if (abs(verticalDifference) >= abs(horizontalDifference))
-            return new Direction[] {verticalDirection, horizontalDirection};
-        else return new Direction[] {horizontalDirection, verticalDirection};
+    private static Direction[] seekDifference(int verticalDifference, int horizontalDifference){
+        int verticalFirst = abs(verticalDifference) >= abs(horizontalDifference) ? 1 : 0;
+        return SEEK_DIRECTIONS[Integer.signum(verticalDifference) + 1][Integer.signum(horizontalDifference) + 1][verticalFirst];
     }
     
     public Position(int x, int y){
@@ -3,17 +3,101 @@ package game;
 public class RNG{
     
     public static final int LAST_SEED = 0x7FFFFFFF;
+    private static final int MULTIPLIER = 1103515245, INCREMENT = 12345;
 
     private int currentValue;
+    private long calls;
     private int nextValue(){
-        return currentValue = (currentValue * 1103515245 + 12345) & 0x7FFFFFFF;
+        calls++;
+        return currentValue = (currentValue * MULTIPLIER + INCREMENT) & 0x7FFFFFFF;
     }
     public void setCurrentValue(int value){
         currentValue = value & 0x7FFFFFFF;
+        calls = 0;
     }
     public int getCurrentValue() {
         return currentValue;
     }
+    
+    /**
+     * Count the number of times the rng has advanced since its value was
+     * last set, for example by loading a savestate. Until this is non-zero,
+     * nothing that happened depended on the value.
+     * @return The number of values generated since setCurrentValue
+     */
+    public long getCalls() {
+        return calls;
+    }
+    
+    /**
+     * Move the rng forwards or backwards by n values, as if it had been
+     * advanced n times. This takes O(log n) time. getCalls changes by n.
+     * @param n The number of values to skip, negative to go back
+     */
+    public void advance(long n) {
+        currentValue = jump(currentValue, n);
+        calls += n;
+    }
+    
+    /**
+     * The rng value n values after another one. The rng is a linear
+     * congruential generator with a period of 2^31, so this composes the
+     * step with itself by repeated squaring, and a negative n is the same as
+     * going forward 2^31 + n values.
+     * @param value An rng value, such as a seed
+     * @param n The number of values to go forward, or back if negative
+     * @return The value after n steps. jump(seed, k) is the value of the
+     * k-th call after the rng was set to seed.
+     */
+    public static int jump(int value, long n) {
+        int multiplier = 1, increment = 0;
+        int a = MULTIPLIER, c = INCREMENT;
+        for (long k = n & LAST_SEED; k != 0; k >>>= 1) {
+            if ((k & 1) != 0) {
+                multiplier *= a;
+                increment = increment * a + c;
+            }
+            c *= a + 1;
+            a *= a;
+        }
+        return (multiplier * value + increment) & LAST_SEED;
+    }
+    
+    /*
+     * The outcomes of random4, randomPermutation3 and randomPermutation4 for
+     * the rng value after they advance it. These say which swaps are made
+     * rather than the permuted directions, so that they do not depend on the
+     * directions passed in.
+     */
+    
+    /**
+     * @return The result of random4 for an rng value, from 0 to 3
+     */
+    public static int random4Of(int value) {
+        return value >>> 29;
+    }
+    
+    /**
+     * @return The swaps made by randomPermutation3 for an rng value: n1 + 2 * n2
+     * where position 1 is swapped with n1 and then position 2 with n2, from 0 to 5
+     */
+    public static int permutation3Of(int value) {
+        int n1 = value >>> 30;                                                      // 0 or 1
+        int n2 = (int) ((3.0 * (value & 0x3FFFFFFF)) / (double) 0x40000000);        // 0, 1 or 2
+        return n1 + 2 * n2;
+    }
+    
+    /**
+     * @return The swaps made by randomPermutation4 for an rng value: n1 + 2 * n2 + 6 * n3
+     * where position 1 is swapped with n1, position 2 with n2 and position 3 with n3,
+     * from 0 to 23
+     */
+    public static int permutation4Of(int value) {
+        int n1 = value >>> 30;                                                      // 0 or 1
+        int n2 = (int) ((3.0 * (value & 0x0FFFFFFF)) / (double) 0x10000000);        // 0, 1 or 2
+        int n3 = (value >>> 28) & 3;                                                // 0, 1, 2 or 3
+        return n1 + 2 * n2 + 6 * n3;
+    }
 
     /**
      * Choose a random number from 0 to 3 inclusive. This is used by random
@@ -21,50 +105,53 @@ public class RNG{
      * @return An int from 0-3 .
      */
     int random4(){
-        return nextValue() >>> 29;
+        return random4Of(nextValue());
     }
 
     /**
-     * Randomly permute an array with 3 elements in place. This is used by
-     * walkers on the array {left, backwards, right}. This advances the rng
-     * once.
-     * @param a The array to permute
+     * Randomly permute 3 directions. This is used by walkers on the
+     * directions {left, backwards, right}. This advances the rng once.
+     * @param a The directions to permute, packed with
+     *          {@link Direction#pack(Direction...)}
+     * @return The permuted directions, packed the same way
      */
-    void randomPermutation3(Object[] a){
-        nextValue();
-        Object swap;
-        int n;
-
-        n = currentValue >>> 30;                                                    // 0 or 1
-        swap = a[n]; a[n] = a[1]; a[1] = swap;
-
-        n = (int) ((3.0 * (currentValue & 0x3FFFFFFF)) / (double) 0x40000000);      // 0, 1 or 2
-        swap = a[n]; a[n] = a[2]; a[2] = swap;
+    int randomPermutation3(int a){
+        int swaps = permutation3Of(nextValue());
+        a = swap(a, swaps % 2, 1);
+        return swap(a, swaps / 2, 2);
     }
 
     /**
-     * Randomly permute an array with 4 elements in place. This is used by
-     * blobs on the array {forwards, left, backwards, right}. This advances the
-     * rng once.
-     * @param a The array to permute
+     * Randomly permute 4 directions. This is used by blobs on the directions
+     * {forwards, left, backwards, right}. This advances the rng once.
+     * @param a The directions to permute, packed with
+     *          {@link Direction#pack(Direction...)}
+     * @return The permuted directions, packed the same way
      */
-    void randomPermutation4(Object[] a){
-        nextValue();
-        Object swap;
-        int n;
-
-        n = currentValue >>> 30;                                                    // 0 or 1
-        swap = a[n]; a[n] = a[1]; a[1] = swap;
-
-        n = (int) ((3.0 * (currentValue & 0x0FFFFFFF)) / (double) 0x10000000);      // 0, 1 or 2
-        swap = a[n]; a[n] = a[2]; a[2] = swap;
-
-        n = (currentValue >>> 28) & 3;                                              // 0, 1, 2 or 3
-        swap = a[n]; a[n] = a[3]; a[3] = swap;
+    int randomPermutation4(int a){
+        int swaps = permutation4Of(nextValue());
+        a = swap(a, swaps % 2, 1);
+        a = swap(a, swaps / 2 % 3, 2);
+        return swap(a, swaps / 6, 3);
+    }
+    
+    /**
+     * Swap the 2-bit codes at positions i and j.
+     */
+    private static int swap(int a, int i, int j){
+        int codeI = (a >>> (2 * i)) & 0b11;
+        int codeJ = (a >>> (2 * j)) & 0b11;
+        a &= ~((0b11 << (2 * i)) | (0b11 << (2 * j)));
+        return a | (codeI << (2 * j)) | (codeJ << (2 * i));
     }
     
     public RNG(int startingSeed) {
         currentValue = startingSeed;
     }
+    
+    RNG(RNG rng) {
+        currentValue = rng.currentValue;
+        calls = rng.calls;
+    }
 
 }
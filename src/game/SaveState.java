@@ -2,15 +2,16 @@ package game;
 
 import java.io.ByteArrayInputStream;
 import java.util.BitSet;
-import java.util.List;
 
 public class SaveState {
     
     public static final int NO_CLICK = 1025;
     public static final int RLE_MULTIPLE = 0x7F;
     public static final int RLE_END = 0x7E;
-    private static final byte UNCOMPRESSED = 4;
+    public static final byte UNCOMPRESSED = 4;
     public static final byte COMPRESSED = 5;
+    public static final byte DELTA = 6;
+    public static final byte XOR = 7;
 
     Layer layerBG;
     Layer layerFG;
@@ -64,13 +65,55 @@ public class SaveState {
         writer.writeShort(traps.length);
         writer.write(traps);
         writer.writeShort(monsterList.size());
-        writer.writeMonsterArray(monsterList.getCreatures());
+        writer.writeMonsterList(monsterList);
         writer.writeShort(slipList.size());
         writer.writeMonsterList(slipList);
         
         return writer.toByteArray();
     }
     
+    /**
+     * A 64 bit hash of everything that save() writes. Two states with the
+     * same savestate always have the same hash, and different states almost
+     * never do.
+     * <p>
+     * The layers keep their own hash up to date as tiles change, so this
+     * only has to go through the creature lists and a few numbers. Nothing
+     * is allocated.
+     * </p>
+     * @return The hash of the current state
+     */
+    public long getStateHash(){
+        return getStateHash(true);
+    }
+    
+    /**
+     * A hash of everything that save() writes, except possibly the rng
+     * value. Leaving it out gives the same hash for states that differ only
+     * in the rng, such as the same point of a solution played with different
+     * seeds.
+     * @param includeRng Whether to include the rng value
+     * @return The hash of the current state
+     */
+    public long getStateHash(boolean includeRng){
+        long hash = layerBG.getHash() ^ Long.rotateLeft(layerFG.getHash(), 32);
+        hash ^= Zobrist.mix(chip.bits());
+        hash ^= Zobrist.mix(1L << 32 | (long) tickNumber << 16 | chipsLeft & 0xFFFF);
+        hash ^= Zobrist.mix(2L << 32 ^ ((long) keys[0] << 48 | (long) keys[1] << 32 | keys[2] << 16 | keys[3] & 0xFFFF));
+        hash ^= Zobrist.mix(3L << 32 | (boots[0] & 0xFF) << 24 | (boots[1] & 0xFF) << 16 | (boots[2] & 0xFF) << 8 | boots[3] & 0xFF);
+        hash ^= Zobrist.mix(4L << 32 ^ ((long) (includeRng ? rng.getCurrentValue() : 0) << 16 | mouseClick & 0xFFFF));
+        hash ^= Zobrist.mix(5L << 32 | (long) monsterList.size() << 16 | slipList.size());
+        for (int i = traps.nextSetBit(0); i >= 0; i = traps.nextSetBit(i + 1)) hash ^= Zobrist.mix(6L << 32 | i);
+        // Each creature gets a key for its place in the list, so that the order counts
+        for (int i = 0; i < monsterList.size(); i++) {
+            hash ^= Zobrist.mix(7L << 48 | (long) i << 16 | monsterList.get(i).bits());
+        }
+        for (int i = 0; i < slipList.size(); i++) {
+            hash ^= Zobrist.mix(8L << 48 | (long) i << 16 | slipList.get(i).bits());
+        }
+        return Zobrist.mix(hash);
+    }
+    
     /**
      * load a savestate
      * @param savestate the savestate to load
@@ -78,6 +121,8 @@ public class SaveState {
     public void load(byte[] savestate){
         SavestateReader reader = new SavestateReader(savestate);
         int version = reader.read();
+        if (version != UNCOMPRESSED && version != COMPRESSED)
+            throw new IllegalArgumentException("Savestates of version " + version + " can only be loaded through SavestateManager");
         chip = new Creature(reader.readShort());
         layerBG.load(reader.readLayer(version));
         layerFG.load(reader.readLayer(version));
@@ -88,8 +133,8 @@ public class SaveState {
         rng.setCurrentValue(reader.readInt());
         mouseClick = reader.readShort();
         traps = BitSet.valueOf(reader.readBytes(reader.readShort()));
-        monsterList.setCreatures(reader.readMonsterArray(reader.readShort()));
-        slipList.setSliplist(reader.readMonsterArray(reader.readShort()));
+        monsterList.setCreatures(reader.readShorts(reader.readShort()));
+        slipList.setSliplist(reader.readShorts(reader.readShort()));
     }
     
     /**
@@ -166,14 +211,6 @@ public class SaveState {
             if (version == COMPRESSED) return readLayerRLE();
             else return readBytes(32*32);
         }
-        Creature[] readMonsterArray(int length){
-            Creature[] monsters = new Creature[length];
-            for (int i = 0; i < length; i++){
-                monsters[i] = new Creature(readShort());
-            }
-            return monsters;
-        }
-
         SavestateReader(byte[] b){
             super(b);
         }
@@ -208,10 +245,7 @@ public class SaveState {
                 writeShort(s);
             }
         }
-        void writeMonsterArray(Creature[] monsters){
-            for (Creature monster : monsters) writeShort(monster.bits());
-        }
-        void writeMonsterList(List<Creature> monsters){
+        void writeMonsterList(Iterable<Creature> monsters){
             for (Creature monster : monsters) writeShort(monster.bits());
         }
         
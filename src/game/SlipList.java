@@ -10,7 +10,7 @@ public class SlipList extends ArrayList<Creature> {
         // Iterating like this causes slide delay.
         for (int i = size(); i > 0; i--){
             Creature monster = get(size()-i);
-            monster.tick(monster.getSlideDirectionPriority(level.layerBG.get(monster.getPosition()), level.rng, false), level, true);
+            monster.tick(monster.getSlideDirectionPriority(level.layerBG.get(monster.getIndex()), level.rng, false), level, true);
         }
     }
 
@@ -21,11 +21,11 @@ public class SlipList extends ArrayList<Creature> {
         return level;
     }
 
-    void setSliplist(Creature[] slidingCreatures){
+    void setSliplist(short[] slidingCreatures){
         clear();
-        for (Creature slider : slidingCreatures){
-            Creature c = level.monsterList.creatureAt(slider.getPosition());
-            if (c == null) c = slider;
+        for (short bits : slidingCreatures){
+            Creature c = level.monsterList.creatureAt(bits & 0b00_0000_1111111111);
+            if (c == null) c = new Creature(bits & 0xFFFF);
             add(c);                // Blocks are not in the monster list, so they are added separately
         }
     }
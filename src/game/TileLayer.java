@@ -1,11 +1,15 @@
 package game;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.function.Consumer;
 
 public class TileLayer implements Layer {
     
-    private final Tile[] tiles;
+    private Tile[] tiles;
+    private boolean shared;                                 // tiles is also used by a fork
+    private final long[] dirtyTiles = new long[32*32/64];
+    private long hash;
     
     public Tile get(int i) {
         if (i >= 0 && i < 32*32) return tiles[i];
@@ -17,11 +21,16 @@ public class TileLayer implements Layer {
     }
     
     public void set(int i, Tile t) {
-        tiles[i] = t;
+        if (tiles[i] != t) {
+            if (shared) unshare();
+            hash ^= Zobrist.tileKey(i, tiles[i].ordinal()) ^ Zobrist.tileKey(i, t.ordinal());
+            tiles[i] = t;
+            dirtyTiles[i >>> 6] |= 1L << i;
+        }
     }
     
     public void set(Position p, Tile t) {
-        tiles[p.getIndex()] = t;
+        set(p.getIndex(), t);
     }
     
     public byte[] getBytes() {
@@ -38,10 +47,27 @@ public class TileLayer implements Layer {
     
     public void load(byte[] b) {
         for (int i = 0; i < 32 * 32; i++) {
-            tiles[i] = Tile.fromOrdinal(b[i] & 0xFF);
+            Tile t = Tile.fromOrdinal(b[i] & 0xFF);
+            if (tiles[i] != t) {
+                if (shared) unshare();
+                hash ^= Zobrist.tileKey(i, tiles[i].ordinal()) ^ Zobrist.tileKey(i, t.ordinal());
+                tiles[i] = t;
+                dirtyTiles[i >>> 6] |= 1L << i;
+            }
         }
     }
     
+    public void takeDirtyTiles(long[] dirtyTiles) {
+        for (int i = 0; i < this.dirtyTiles.length; i++) {
+            dirtyTiles[i] |= this.dirtyTiles[i];
+            this.dirtyTiles[i] = 0;
+        }
+    }
+    
+    public long getHash() {
+        return hash;
+    }
+    
     public Iterator<Tile> iterator() {
         return new Iterator<Tile>() {
             private int i;
@@ -62,8 +88,26 @@ public class TileLayer implements Layer {
         for (Tile t : tiles) action.accept(t);
     }
     
+    public Layer fork() {
+        shared = true;
+        return new TileLayer(tiles, hash);
+    }
+    
+    private void unshare() {
+        tiles = tiles.clone();
+        shared = false;
+    }
+    
+    private TileLayer(Tile[] tiles, long hash) {
+        this.tiles = tiles;
+        this.hash = hash;
+        shared = true;
+        Arrays.fill(dirtyTiles, -1L);
+    }
+    
     public TileLayer(Tile[] tiles) {
         this.tiles = tiles;
+        hash = Zobrist.layerHash(getBytes());
     }
     
     public TileLayer(byte[] tiles) {
@@ -71,6 +115,7 @@ public class TileLayer implements Layer {
         for (int i = 0; i < 32*32; i++) {
             this.tiles[i] = Tile.fromOrdinal(tiles[i]);
         }
+        hash = Zobrist.layerHash(tiles);
     }
     
 }
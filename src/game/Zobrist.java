@@ -0,0 +1,39 @@
+package game;
+
+/**
+ * Keys for the state hash of a level. Instead of a table of random numbers,
+ * each key is the SplitMix64 mix of what it stands for, so no memory is
+ * needed and every layer gets the same keys.
+ */
+final class Zobrist {
+
+    /**
+     * @return The key for a tile at a position of a layer
+     */
+    static long tileKey(int position, int tile) {
+        return mix((long) position << 8 | tile);
+    }
+
+    /**
+     * The SplitMix64 finaliser. This gives a different, well spread value for
+     * every input.
+     */
+    static long mix(long x) {
+        x += 0x9e3779b97f4a7c15L;
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+
+    /**
+     * The hash of all tiles of a layer.
+     */
+    static long layerHash(byte[] layer) {
+        long hash = 0;
+        for (int i = 0; i < layer.length; i++) hash ^= tileKey(i, layer[i] & 0xFF);
+        return hash;
+    }
+
+    private Zobrist() {}
+
+}
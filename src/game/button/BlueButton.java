@@ -2,7 +2,6 @@ package game.button;
 
 import game.Creature;
 import game.Level;
-import game.Position;
 
 import static game.CreatureID.TANK_MOVING;
 import static game.Direction.TURN_RIGHT;
@@ -15,13 +14,13 @@ public class BlueButton extends Button {
             if (m.getCreatureType().isTank() && !m.isSliding()){
                 m.setCreatureType(TANK_MOVING);
                 m.turn(TURN_RIGHT);
-                level.getLayerFG().set(m.getPosition(), m.toTile());
+                level.getLayerFG().set(m.getIndex(), m.toTile());
                 m.turn(TURN_RIGHT);
             }
         }
     }
     
-    public BlueButton(Position buttonPosition) {
+    public BlueButton(int buttonPosition) {
         super(buttonPosition);
     }
     
@@ -1,7 +1,6 @@
 package game.button;
 
 import game.Level;
-import game.Position;
 
 public class BrownButton extends ConnectionButton {
     
@@ -24,7 +23,7 @@ public class BrownButton extends ConnectionButton {
         return trapIndex;
     }
     
-    public BrownButton(Position buttonPosition, Position trapPosition, int trapIndex) {
+    public BrownButton(int buttonPosition, int trapPosition, int trapIndex) {
         super(buttonPosition, trapPosition);
         this.trapIndex = trapIndex;
     }
@@ -5,15 +5,19 @@ import game.Position;
 
 public abstract class Button {
     
-    private final Position buttonLocation;
+    private final int buttonLocation;
     
     public Position getButtonPosition() {
+        return new Position(buttonLocation);
+    }
+    
+    public int getButtonIndex() {
         return buttonLocation;
     }
     
     public abstract void press(Level level);
     
-    public Button(Position buttonLocation) {
+    public Button(int buttonLocation) {
         this.buttonLocation = buttonLocation;
     }
     
@@ -4,13 +4,17 @@ import game.Position;
 
 public abstract class ConnectionButton extends Button {
 
-    final Position targetPosition;
+    final int targetPosition;
     
     public Position getTargetPosition() {
+        return new Position(targetPosition);
+    }
+    
+    public int getTargetIndex() {
         return targetPosition;
     }
     
-    public ConnectionButton(Position buttonPosition, Position targetPosition) {
+    public ConnectionButton(int buttonPosition, int targetPosition) {
         super(buttonPosition);
         this.targetPosition = targetPosition;
     }
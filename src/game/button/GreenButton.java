@@ -1,7 +1,6 @@
 package game.button;
 
 import game.Level;
-import game.Position;
 
 import static game.Tile.TOGGLE_CLOSED;
 import static game.Tile.TOGGLE_OPEN;
@@ -10,7 +9,7 @@ public class GreenButton extends Button{
     
     @Override
     public void press(Level level) {
-        for (Position p : level.getToggleDoors()) {
+        for (int p : level.getToggleDoors()) {
             if      (level.getLayerFG().get(p) == TOGGLE_OPEN) level.getLayerFG().set(p, TOGGLE_CLOSED);
             else if (level.getLayerFG().get(p) == TOGGLE_CLOSED) level.getLayerFG().set(p, TOGGLE_OPEN);
             else if (level.getLayerBG().get(p) == TOGGLE_OPEN) level.getLayerBG().set(p, TOGGLE_CLOSED);
@@ -18,7 +17,7 @@ public class GreenButton extends Button{
         }
     }
     
-    public GreenButton(Position buttonPosition) {
+    public GreenButton(int buttonPosition) {
         super(buttonPosition);
     }
 
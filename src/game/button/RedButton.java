@@ -1,7 +1,6 @@
 package game.button;
 
 import game.Level;
-import game.Position;
 
 public class RedButton extends ConnectionButton {
     
@@ -10,7 +9,7 @@ public class RedButton extends ConnectionButton {
         level.getMonsterList().addClone(targetPosition); //Sends a clone signal to the addClone code, targetPosition is sent as (X Y)
     }
     
-    public RedButton(Position buttonPosition, Position clonerPosition) {
+    public RedButton(int buttonPosition, int clonerPosition) {
         super(buttonPosition, clonerPosition);
     }
     
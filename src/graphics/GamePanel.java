@@ -11,7 +11,9 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.awt.image.WritableRaster;
+import java.util.Arrays;
 import java.util.List;
 
 import static game.Position.UNCLICKABLE;
@@ -40,6 +42,9 @@ public abstract class GamePanel extends JPanel
     // The image behind the background (32*32 floor tiles)
     protected BufferedImage bbg;
     protected BufferedImage overlay;
+    private final BufferedImage[] overlays = new BufferedImage[2];
+    private final boolean[] overlayUsed = new boolean[2];
+    private int nextOverlay;
     
     protected SuperCC emulator;
     
@@ -88,7 +93,7 @@ public abstract class GamePanel extends JPanel
     void updateGraphics(boolean fromScratch) {
         Level level = emulator.getLevel();
         drawLevel(level, fromScratch);
-        overlay = new BufferedImage(32 * tileWidth, 32 * tileHeight, BufferedImage.TYPE_4BYTE_ABGR);
+        overlay = nextOverlay();
         if (showMonsterList) drawMonsterList(level.getMonsterList(), overlay);
         if (showSlipList) drawSlipList(level.getSlipList(), overlay);
         if (showCloneConnections) drawButtonConnections(level.getRedButtons(), overlay);
@@ -97,6 +102,26 @@ public abstract class GamePanel extends JPanel
     
     }
     
+    /**
+     * The overlay is drawn on one of two images, which take turns so that
+     * the one being painted is never cleared. An image is only cleared if
+     * something was drawn on it.
+     * @return A transparent image for the overlay
+     */
+    private BufferedImage nextOverlay() {
+        nextOverlay = 1 - nextOverlay;
+        BufferedImage image = overlays[nextOverlay];
+        if (image == null || image.getWidth() != 32 * tileWidth || image.getHeight() != 32 * tileHeight) {
+            image = new BufferedImage(32 * tileWidth, 32 * tileHeight, BufferedImage.TYPE_4BYTE_ABGR);
+            overlays[nextOverlay] = image;
+        }
+        else if (overlayUsed[nextOverlay]) {
+            Arrays.fill(((DataBufferByte) image.getRaster().getDataBuffer()).getData(), (byte) 0);
+        }
+        overlayUsed[nextOverlay] = showMonsterList || showSlipList || showCloneConnections || showTrapConnections || showHistory;
+        return image;
+    }
+    
     public void setBGVisible(boolean visible) {
         showBG = visible;
     }
@@ -2,6 +2,7 @@ package graphics;
 
 import com.sun.java.swing.plaf.windows.WindowsSliderUI;
 import emulator.EmulatorKeyListener;
+import emulator.EmulatorListener;
 import emulator.SavestateManager;
 import emulator.SuperCC;
 import game.Level;
@@ -14,7 +15,7 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.List;
 
-public class Gui extends JFrame{
+public class Gui extends JFrame implements EmulatorListener {
     private JPanel mainPanel;
     private JPanel rightContainer;
     private JPanel gamePanel;
@@ -89,7 +90,7 @@ public class Gui extends JFrame{
             playButton.setIcon(new ImageIcon(ImageIO.read(getClass().getResource("/resources/icons/play.gif"))));
         }
         catch (IOException e){
-            emulator.throwError("Error loading tileset: "+e.getMessage());
+            throwError("Error loading tileset: "+e.getMessage());
             try {
                 ((GamePanel) gamePanel).initialise(emulator, ImageIO.read(getClass().getResource("/resources/tw-editor.png")), TileSheet.CCEDIT_TW, DEFAULT_TILE_WIDTH, DEFAULT_TILE_HEIGHT);
             }
@@ -114,11 +115,11 @@ public class Gui extends JFrame{
             try {
                 if (emulator.getSavestates().isPaused()) {
                     emulator.showAction("Pausing solution playback");
-                    playButton.setIcon(new ImageIcon(ImageIO.read(getClass().getResource("/resources/icons/play.gif"))));
+                    setPlayButtonIcon("/resources/icons/play.gif");
                 }
                 else {
                     emulator.showAction("Playing solution");
-                    playButton.setIcon(new ImageIcon(ImageIO.read(getClass().getResource("/resources/icons/pause.gif"))));
+                    setPlayButtonIcon("/resources/icons/pause.gif");
                     new Thread(() -> emulator.getSavestates().play(emulator)).start();
                 }
             }
@@ -177,6 +178,39 @@ public class Gui extends JFrame{
         movePanel.repaint();
     }
     
+    private void setPlayButtonIcon(String resource) throws IOException {
+        playButton.setIcon(new ImageIcon(ImageIO.read(getClass().getResource(resource))));
+    }
+    
+    @Override
+    public void levelLoaded(Level level) {
+        setTitle("SuperCC - " + new String(level.getTitle()));
+    }
+    
+    @Override
+    public void showAction(String s) {
+        getLastActionPanel().update(s);
+        getLastActionPanel().repaint();
+    }
+    
+    @Override
+    public void throwError(String s) {
+        JOptionPane.showMessageDialog(this, s, "Error", JOptionPane.ERROR_MESSAGE);
+    }
+    
+    @Override
+    public void playbackFinished() {
+        SwingUtilities.invokeLater(() -> {
+            try {
+                setPlayButtonIcon("/resources/icons/play.gif");
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+    
+    @Override
     public void repaint(Level level, boolean fromSratch){
         updateTimeSlider(emulator.getSavestates());
         getGamePanel().updateGraphics(fromSratch);
@@ -1,5 +1,6 @@
 package graphics;
 
+import emulator.SavestateArchive;
 import emulator.SavestateManager;
 import emulator.Solution;
 import emulator.SuperCC;
@@ -29,6 +30,8 @@ import static java.nio.charset.StandardCharsets.ISO_8859_1;
 
 public class MenuBar extends JMenuBar{
 
+    private static final long TSP_TIME_LIMIT = 2000;            // ms
+    
     private SuperCC emulator;
     Gui window;
     
@@ -270,11 +273,7 @@ public class MenuBar extends JMenuBar{
                         File file = fc.getSelectedFile();
                         String filename = file.toString();
                         if (!filename .endsWith(".ser")) filename += ".ser";
-                        FileOutputStream fos = new FileOutputStream(filename);
-                        ObjectOutputStream out = new ObjectOutputStream(fos);
-                        out.writeObject(emulator.getSavestates());
-                        out.close();
-                        fos.close();
+                        SavestateArchive.write(emulator.getSavestates(), new File(filename));
                     }
                 }
                 catch (IOException e){
@@ -293,11 +292,18 @@ public class MenuBar extends JMenuBar{
                     fc.setCurrentDirectory(new File(emulator.getJSONPath()).getParentFile());
                     fc.setSelectedFile(new File(emulator.getJSONPath()));
                     if (fc.showOpenDialog(window) == JFileChooser.APPROVE_OPTION) {
-                        FileInputStream fis = new FileInputStream(fc.getSelectedFile());
-                        ObjectInputStream ois = new ObjectInputStream(fis);
-                        emulator.setSavestates((SavestateManager) ois.readObject());
-                        ois.close();
-                        fis.close();
+                        File file = fc.getSelectedFile();
+                        if (SavestateArchive.isArchive(file)) {
+                            emulator.setSavestates(SavestateArchive.read(file));
+                        }
+                        else {
+                            // Files saved by older versions are serialized objects
+                            FileInputStream fis = new FileInputStream(file);
+                            ObjectInputStream ois = new ObjectInputStream(fis);
+                            emulator.setSavestates((SavestateManager) ois.readObject());
+                            ois.close();
+                            fis.close();
+                        }
                     }
                 }
                 catch (IOException | ClassNotFoundException e){
@@ -534,20 +540,55 @@ public class MenuBar extends JMenuBar{
             addIcon(gif, "/resources/icons/video.gif");
             add(gif);
     
+            JMenuItem routeSearch = new JMenuItem("Find route");
+            routeSearch.addActionListener(e -> new RouteSearch(emulator));
+            add(routeSearch);
+    
             JMenuItem tsp = new JMenuItem("TSP Solver");
-            tsp.addActionListener(e -> new SwingWorker<Void, Void>(){
-                @Override
-                protected Void doInBackground() throws Exception {
-
-                    return null;
-                }
-            }.execute()) ;
+            tsp.addActionListener(e -> {
+                TSPSolver solver = new TSPSolver(emulator.getLevel());
+                emulator.showAction("Planning route, please wait");
+                new SwingWorker<TSPSolver.Plan, Void>(){
+                    @Override
+                    protected TSPSolver.Plan doInBackground() throws Exception {
+                        return solver.solve(TSP_TIME_LIMIT);
+                    }
+                    @Override
+                    protected void done() {
+                        try {
+                            showPlan(solver, get());
+                        }
+                        catch (Exception exc) {
+                            exc.printStackTrace();
+                            emulator.throwError("Could not plan route: " + exc.getMessage());
+                        }
+                    }
+                }.execute();
+            });
             add(tsp);
-            tsp.setEnabled(false);
             
         }
     }
     
+    private void showPlan(TSPSolver solver, TSPSolver.Plan plan) {
+        StringBuilder sb = new StringBuilder();
+        if (!plan.complete) sb.append("Warning: this order does not reach every target\n");
+        if (!solver.getUnreachable().isEmpty()) {
+            sb.append(solver.getUnreachable().size()).append(" chips and keys cannot be reached\n");
+        }
+        sb.append("Total: ").append(plan.totalMoves).append(" moves\n\n");
+        for (int i = 0; i < plan.order.size(); i++) {
+            TSPSolver.Target target = plan.order.get(i);
+            sb.append(i + 1).append(". ").append(target.tile).append(" at ").append(target.position).append(": ");
+            if (plan.moves[i] == TSPSolver.UNREACHABLE) sb.append("unreachable\n");
+            else sb.append(plan.moves[i]).append(" moves\n");
+        }
+        JTextArea text = new JTextArea(sb.toString(), 20, 30);
+        text.setEditable(false);
+        emulator.showAction("Planned route of " + plan.totalMoves + " moves");
+        JOptionPane.showMessageDialog(window, new JScrollPane(text), "TSP Solver", JOptionPane.PLAIN_MESSAGE);
+    }
+    
     private class CheatMenu extends JMenu{
         public CheatMenu() {
             super("Cheats");
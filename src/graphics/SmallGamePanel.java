@@ -7,14 +7,17 @@ import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.WritableRaster;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 
 public class SmallGamePanel extends GamePanel {
     
     private Position screenBottomRight;                 // not included
     private int windowSizeX, windowSizeY;
-    private byte[] previousFG = new byte[32*32];
-    private byte[] previousBG = new byte[32*32];
+    private final long[] dirtyTiles = new long[32*32/64];
+    private final byte[] drawnFG = new byte[32*32];
+    private final byte[] drawnBG = new byte[32*32];
+    private Level previousLevel;
     private Position previousScreenTopLeft = new Position(-1, -1);
     
     private static final double[] offsets = new double[] {
@@ -92,25 +95,49 @@ public class SmallGamePanel extends GamePanel {
         WritableRaster rasterFG = fg.getRaster();
         WritableRaster rasterBG = bg.getRaster();
     
-        int screenMotion = screenTopLeft.getIndex() - previousScreenTopLeft.getIndex();
-    
-        for (int xPos = 0; xPos < windowSizeX; xPos++){
-            for (int yPos = 0; yPos < windowSizeY; yPos++) {
-                Position p = new Position(screenTopLeft.getX() + xPos, screenTopLeft.getY() + yPos);
-                int i = p.getIndex();
-                if (fromScratch || layerFG[i] != previousFG[i-screenMotion] || layerBG[i] != previousBG[i-screenMotion]) {
-                    int x = tileWidth * xPos, y = tileHeight * yPos;
-                    rasterBG.setPixels(x, y, tileWidth, tileHeight, tileImage[layerBG[i]]);
-                    rasterFG.setPixels(x, y, tileWidth, tileHeight, tileImage[layerFG[i]]);
-                    if (showBG && !Tile.fromOrdinal(layerFG[i]).isTransparent() && layerBG[i] != 0) {
-                        rasterFG.setPixels(x + bgBorderSize, y + bgBorderSize, tileWidth - 2 * bgBorderSize, tileHeight - 2 * bgBorderSize, bgTileImage[layerBG[i]]);
+        // Only tiles that were set since the last frame are checked, unless the screen moved. A tile
+        // can be set several times in one frame and end up as it was, so it is compared to what was drawn.
+        level.takeDirtyTiles(dirtyTiles);
+        if (level != previousLevel || !screenTopLeft.equals(previousScreenTopLeft)) fromScratch = true;
+    
+        if (fromScratch) {
+            for (int xPos = 0; xPos < windowSizeX; xPos++){
+                for (int yPos = 0; yPos < windowSizeY; yPos++) {
+                    drawTile(layerFG, layerBG, screenTopLeft.getIndex() + 32 * yPos + xPos, rasterFG, rasterBG);
+                }
+            }
+        }
+        else {
+            for (int word = 0; word < dirtyTiles.length; word++) {
+                long bits = dirtyTiles[word];
+                while (bits != 0) {
+                    int i = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    if (onScreen(i) && (layerFG[i] != drawnFG[i] || layerBG[i] != drawnBG[i])) {
+                        drawTile(layerFG, layerBG, i, rasterFG, rasterBG);
                     }
                 }
             }
         }
-        previousBG = layerBG.clone();
-        previousFG = layerFG.clone();
-        previousScreenTopLeft = screenTopLeft.clone();
+        Arrays.fill(dirtyTiles, 0);
+        previousLevel = level;
+        previousScreenTopLeft = screenTopLeft;
+    }
+    
+    private boolean onScreen(int i) {
+        int x = (i & 0b11111) - screenTopLeft.getX(), y = (i >>> 5) - screenTopLeft.getY();
+        return 0 <= x && x < windowSizeX && 0 <= y && y < windowSizeY;
+    }
+    
+    private void drawTile(byte[] layerFG, byte[] layerBG, int i, WritableRaster rasterFG, WritableRaster rasterBG) {
+        int x = tileWidth * ((i & 0b11111) - screenTopLeft.getX()), y = tileHeight * ((i >>> 5) - screenTopLeft.getY());
+        rasterBG.setPixels(x, y, tileWidth, tileHeight, tileImage[layerBG[i]]);
+        rasterFG.setPixels(x, y, tileWidth, tileHeight, tileImage[layerFG[i]]);
+        if (showBG && !Tile.fromOrdinal(layerFG[i]).isTransparent() && layerBG[i] != 0) {
+            rasterFG.setPixels(x + bgBorderSize, y + bgBorderSize, tileWidth - 2 * bgBorderSize, tileHeight - 2 * bgBorderSize, bgTileImage[layerBG[i]]);
+        }
+        drawnFG[i] = layerFG[i];
+        drawnBG[i] = layerBG[i];
     }
     
     @Override
@@ -4,33 +4,53 @@ import game.Level;
 import game.Step;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * A class for reading the .dat format.
  * For documentation on the dat format itself please read http://www.seasip.info/ccfile.html
+ * <p>
+ * The file is memory-mapped once, when the DatParser is created. Parsed
+ * levels are kept in a small LRU cache, so loading the same level again
+ * (with a different seed or step, for example) does not read the file.
+ * This class is safe to use from several threads at once.
+ * </p>
  */
 public class DatParser{
 
     private final static int MSCC_SIGNATURE = 0x0002AAAC;
     private final static int TWORLD_LYNX_SIGNATURE = 0x0102AAAC;
+    private final static int LEVEL_CACHE_SIZE = 16;
 
     private final File file;
-    private long[] levelStart;
-    
+    private final ByteBuffer buffer;
+    private int[] levelStart;
+    private final Map<Integer, LevelTemplate> levelCache = new LinkedHashMap<Integer, LevelTemplate>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, LevelTemplate> eldest) {
+            return size() > LEVEL_CACHE_SIZE;
+        }
+    };
+
     public int lastLevel() {
         return levelStart.length;
     }
-    
+
     public String getLevelsetName() {
         return file.getName().replaceFirst("[.][^.]+$", "");
     }
 
     /**
      * Reads either layer 1 or layer 2 of the .dat file. Only call this if the
-     * FileInputStream stream is pointing at the layer data, so that the next
-     * word is the "Number of bytes in X layer".
+     * reader is pointing at the layer data, so that the next word is the
+     * "Number of bytes in X layer".
      *
      * @return A 1028 element byte array containing the layer, row by row.
      */
@@ -42,9 +62,10 @@ public class DatParser{
             int b = reader.readUnsignedByte();
             if (b == 0xFF){
                 int copies = reader.readUnsignedByte();
-                int objectCode = reader.read();
+                byte objectCode = (byte) reader.readUnsignedByte();
+                if (i + copies > 1024) throw new IOException("Invalid layer");
                 for (int k = 0; k < copies; k++){
-                    layer[i] = (byte) objectCode;
+                    layer[i] = objectCode;
                     i++;
                 }
             }
@@ -58,8 +79,8 @@ public class DatParser{
 
     /**
      * Reads a set of button connections from the .dat file. Only call this if
-     * the FileInputStream stream is pointing at the connection data, so that
-     * the next word is the "Button X position".
+     * the reader is pointing at the connection data, so that the next word is
+     * the "Button X position".
      *
      * @param length Length of this field
      * @param trapConnections if true, handles trap connections; else, handles
@@ -89,9 +110,41 @@ public class DatParser{
      * @return a Level object
      */
     public Level parseLevel(int level, int rngSeed, Step step) throws IOException{
-        DatReader reader = new DatReader(file);
+        return getTemplate(level).makeLevel(rngSeed, step, lastLevel());
+    }
+
+    /**
+     * @return The title of a level, without making the level
+     */
+    public byte[] getTitle(int level) throws IOException{
+        return getTemplate(level).title;
+    }
+
+    /**
+     * @return The password of a level, without making the level
+     */
+    public byte[] getPassword(int level) throws IOException{
+        return getTemplate(level).password;
+    }
+
+    private LevelTemplate getTemplate(int level) throws IOException{
+        LevelTemplate template;
+        synchronized (levelCache) {
+            template = levelCache.get(level);
+        }
+        if (template == null) {
+            template = readLevel(level);
+            synchronized (levelCache) {
+                levelCache.put(level, template);
+            }
+        }
+        return template;
+    }
+
+    private LevelTemplate readLevel(int level) throws IOException{
+        if (level < 1 || level >= levelStart.length) throw new IOException("Level " + level + " does not exist");
+        DatReader reader = new DatReader(buffer, levelStart[level]);
         try {
-            reader.skip(levelStart[level]);
             final int levelNumber = reader.readWord();
             int timeLimit = reader.readWord();
             int chips = reader.readWord();
@@ -110,6 +163,7 @@ public class DatParser{
                 optionalFieldsLength--;
                 final int fieldLength = reader.readUnsignedByte();
                 optionalFieldsLength--;
+                final int fieldEnd = reader.position() + fieldLength;
                 switch (fieldType) {
                     case 1:
                         timeLimit = reader.readWord();
@@ -135,9 +189,6 @@ public class DatParser{
                     case 8:
                         password = reader.readAscii(fieldLength);
                         break;
-                    case 9:
-                        for (int j = 0; j < fieldLength; j++) reader.readUnsignedByte();
-                        break;
                     case 10:
                         int numMonsters = fieldLength / 2;
                         monsterPositions = new int[numMonsters][2];
@@ -147,74 +198,114 @@ public class DatParser{
                         }
                         break;
                 }
+                reader.position(fieldEnd);
                 optionalFieldsLength -= fieldLength;
             }
 
-            return LevelFactory.makeLevel(levelNumber, timeLimit, chips, layerFG, layerBG, title, trapConnections,
-                    cloneConnections, password, hint, monsterPositions, rngSeed, step, lastLevel());
+            return new LevelTemplate(levelNumber, timeLimit, chips, layerFG, layerBG, title, trapConnections,
+                    cloneConnections, password, hint, monsterPositions);
         }
-        catch (IOException e){
-            reader.close();
-            throw(e);
+        catch (BufferUnderflowException | IllegalArgumentException e){
+            throw new IOException("Level " + level + " is cut off");
         }
     }
 
     /**
-     * DatParser constructor. The .dat file is skimmed in order to create an
-     * array of pointers to each individual level. No levels get loaded in
-     * this constructor.
+     * DatParser constructor. The .dat file is mapped into memory and skimmed
+     * in order to create an array of pointers to each individual level. No
+     * levels get loaded in this constructor.
      * @param file The .dat file
      */
     public DatParser(File file) throws IOException {
         this.file = file;
-        DatReader reader = new DatReader(file);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("File is too large");
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        DatReader reader = new DatReader(buffer, 0);
         try {
             int signature = reader.readInt32();
             if (signature != MSCC_SIGNATURE && signature != TWORLD_LYNX_SIGNATURE) {
                 throw new IOException("Invalid signature");
             }
             final int levels = reader.readWord();
-            long byteN = 4+2;
-            levelStart = new long[levels+1];  // +1 because we skip level #0
+            levelStart = new int[levels+1];  // +1 because we skip level #0
             for (int i = 1; i <= levels; i++) {
-                long bytesInLevel = reader.readWord();
-                byteN += 2;
-                levelStart[i] = byteN;
-                byteN += bytesInLevel;
-                reader.skip(bytesInLevel);
+                int bytesInLevel = reader.readWord();
+                levelStart[i] = reader.position();
+                reader.position(levelStart[i] + bytesInLevel);
             }
         }
-        catch (IOException e){
-            reader.close();
-            throw e;
+        catch (BufferUnderflowException | IllegalArgumentException e){
+            throw new IOException("File is cut off");
         }
     }
-    
-    private class DatReader extends FileInputStream{
-        private int readUnsignedByte() throws IOException{
-            return read() & 0xFF;
+
+    /**
+     * The contents of a level in the .dat file. Templates are shared between
+     * threads and never modified; each Level gets its own copy of the layers.
+     */
+    private static class LevelTemplate {
+        private final int levelNumber, timeLimit, chips;
+        private final byte[] layerFG, layerBG, title, password, hint;
+        private final int[][] trapConnections, cloneConnections, monsterPositions;
+
+        Level makeLevel(int rngSeed, Step step, int lastLevel) {
+            return LevelFactory.makeLevel(levelNumber, timeLimit, chips, layerFG.clone(), layerBG.clone(), title,
+                    trapConnections, cloneConnections, password, hint, monsterPositions, rngSeed, step, lastLevel);
         }
-        private int readWord() throws IOException{
-            return readUnsignedByte() + 256*readUnsignedByte();
+
+        LevelTemplate(int levelNumber, int timeLimit, int chips, byte[] layerFG, byte[] layerBG, byte[] title,
+                      int[][] trapConnections, int[][] cloneConnections, byte[] password, byte[] hint,
+                      int[][] monsterPositions) {
+            this.levelNumber = levelNumber;
+            this.timeLimit = timeLimit;
+            this.chips = chips;
+            this.layerFG = layerFG;
+            this.layerBG = layerBG;
+            this.title = title;
+            this.trapConnections = trapConnections;
+            this.cloneConnections = cloneConnections;
+            this.password = password;
+            this.hint = hint;
+            this.monsterPositions = monsterPositions;
         }
-        private int readInt32() throws IOException{
-            return readUnsignedByte() + 256*readUnsignedByte() + 65536*readUnsignedByte() + 16777216*readUnsignedByte();
+    }
+
+    /**
+     * Reads little-endian values from the mapped file. Each reader has its
+     * own position, so several can read the same buffer at once.
+     */
+    private static class DatReader {
+        private final ByteBuffer buffer;
+        private int readUnsignedByte(){
+            return buffer.get() & 0xFF;
+        }
+        private int readWord(){
+            return buffer.getShort() & 0xFFFF;
         }
-        private byte[] readAscii(int length) throws IOException{
+        private int readInt32(){
+            return buffer.getInt();
+        }
+        private int position(){
+            return buffer.position();
+        }
+        private void position(int position){
+            buffer.position(position);
+        }
+        private byte[] readAscii(int length){
             byte[] asciiBytes = new byte[length];
-            read(asciiBytes, 0, length-1);
-            read();                                         // trailing '\0'
+            if (length > 0) buffer.get(asciiBytes, 0, length-1);    // trailing '\0' is left as 0
             return asciiBytes;
         }
-        private byte[] readEncodedAscii(int length) throws IOException{
-            byte[] asciiBytes = new byte[length];
-            read(asciiBytes, 0, length-1);
-            read();                                         // trailing '\0'
+        private byte[] readEncodedAscii(int length){
+            byte[] asciiBytes = readAscii(length);
             for (int i = 0; i < length; i++) asciiBytes[i] = (byte) ((int) asciiBytes[i] ^ 0x99);
             return asciiBytes;
         }
-        DatReader (File datFile) throws IOException{
-            super(datFile);
+        DatReader (ByteBuffer buffer, int position){
+            this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            this.buffer.position(position);
         }
     }
 
@@ -3,9 +3,11 @@ package io;
 import game.*;
 import game.button.BlueButton;
 import game.button.BrownButton;
+import game.button.Button;
 import game.button.GreenButton;
 import game.button.RedButton;
 
+import java.util.Arrays;
 import java.util.BitSet;
 
 /**
@@ -15,7 +17,7 @@ import java.util.BitSet;
 public class LevelFactory {
 
     // Various helper functions for processing parts of the .dat file.
-    private static Position[] getToggleDoors(Layer layerFG, Layer layerBG){
+    private static int[] getToggleDoors(Layer layerFG, Layer layerBG){
         int l = 0;
         for (int i = 0; i < 32*32; i++){
             Tile tile = layerFG.get(i);
@@ -23,32 +25,32 @@ public class LevelFactory {
             tile = layerBG.get(i);
             if (tile == Tile.TOGGLE_CLOSED || tile == Tile.TOGGLE_OPEN) l++;
         }
-        Position[] toggleDoors = new Position[l];
+        int[] toggleDoors = new int[l];
         l = 0;
         for (short i = 0; i < 32*32; i++){
             Tile tile = layerFG.get(i);
             if (tile == Tile.TOGGLE_CLOSED || tile == Tile.TOGGLE_OPEN){
-                toggleDoors[l] = new Position(i);
+                toggleDoors[l] = i;
                 l++;
             }
             tile = layerBG.get(i);
             if (tile == Tile.TOGGLE_CLOSED || tile == Tile.TOGGLE_OPEN){
-                toggleDoors[l] = new Position(i);
+                toggleDoors[l] = i;
                 l++;
             }
         }
         return toggleDoors;
     }
-    private static Position[] getPortals(Layer layerFG, Layer layerBG){
+    private static int[] getPortals(Layer layerFG, Layer layerBG){
         int l = 0;
         for (int i = 0; i < 32*32; i++){
             if (layerFG.get(i) == Tile.TELEPORT || (layerFG.get(i).isMonster() && layerBG.get(i) == Tile.TELEPORT)) l++;
         }
-        Position[] portals = new Position[l];
+        int[] portals = new int[l];
         l = 0;
         for (short i = 0; i < 32*32; i++){
             if (layerFG.get(i) == Tile.TELEPORT || (layerFG.get(i).isMonster() && layerBG.get(i) == Tile.TELEPORT)){
-                portals[l++] = new Position(i);
+                portals[l++] = i;
             }
         }
         return portals;
@@ -69,7 +71,7 @@ public class LevelFactory {
         for (int i = 0; i < monsterPositions.length; i++){
             int x = monsterPositions[i][0];
             int y = monsterPositions[i][1];
-            Position position = new Position(x, y);
+            int position = (y << 5) | x;
             if (layerFG.get(position).isMonster() && (layerBG.get(position) != Tile.CLONE_MACHINE)) {
                 monsterList[l++] = new Creature(position, layerFG.get(position));
             }
@@ -79,9 +81,9 @@ public class LevelFactory {
     private static Creature findPlayer(Layer layerFG){
         for (int i = 32*32-1; i >= 0; i--){
             Tile tile = layerFG.get(i);
-            if (Tile.CHIP_UP.ordinal() <= tile.ordinal()) return new Creature(new Position(i), tile);
+            if (Tile.CHIP_UP.ordinal() <= tile.ordinal()) return new Creature(i, tile);
         }
-        return new Creature(new Position(0), Tile.CHIP_DOWN);
+        return new Creature(0, Tile.CHIP_DOWN);
     }
     private static int getTimer(int timeLimit){
         if (timeLimit == 0) return -2;
@@ -102,7 +104,7 @@ public class LevelFactory {
         l = 0;
         for (short i = 0; i < 32*32; i++){
             if (layerFG.get(i) == Tile.BUTTON_GREEN || layerBG.get(i) == Tile.BUTTON_GREEN){
-                buttons[l++] = new GreenButton(new Position(i));
+                buttons[l++] = new GreenButton(i);
             }
         }
         return buttons;
@@ -116,7 +118,7 @@ public class LevelFactory {
         l = 0;
         for (short i = 0; i < 32*32; i++){
             if (layerFG.get(i) == Tile.BUTTON_BLUE || layerBG.get(i) == Tile.BUTTON_BLUE){
-                buttons[l++] = new BlueButton(new Position(i));
+                buttons[l++] = new BlueButton(i);
             }
         }
         return buttons;
@@ -124,17 +126,47 @@ public class LevelFactory {
     private static BrownButton[] getBrownButtons(int[][] trapConnections) {
         BrownButton[] buttons = new BrownButton[trapConnections.length];
         for (int i = 0; i < trapConnections.length; i++) {
-            buttons[i] = new BrownButton(new Position(trapConnections[i][0]), new Position(trapConnections[i][1]), i);
+            buttons[i] = new BrownButton(trapConnections[i][0], trapConnections[i][1], i);
         }
         return buttons;
     }
     private static RedButton[] getRedButtons(int[][] cloneConnections) {
         RedButton[] buttons = new RedButton[cloneConnections.length];
         for (int i = 0; i < cloneConnections.length; i++) {
-            buttons[i] = new RedButton(new Position(cloneConnections[i][0]), new Position(cloneConnections[i][1]));
+            buttons[i] = new RedButton(cloneConnections[i][0], cloneConnections[i][1]);
         }
         return buttons;
     }
+    // buttonsAt[i] holds every button at position i in the order given, or null if there is none
+    private static Button[][] getButtonsAt(Button[]... buttonArrays) {
+        Button[][] buttonsAt = new Button[32*32][];
+        for (Button[] buttons : buttonArrays) {
+            for (Button b : buttons) {
+                int i = b.getButtonIndex();
+                if (i < 0 || i >= 32*32) continue;
+                if (buttonsAt[i] == null) buttonsAt[i] = new Button[] {b};
+                else {
+                    buttonsAt[i] = Arrays.copyOf(buttonsAt[i], buttonsAt[i].length + 1);
+                    buttonsAt[i][buttonsAt[i].length - 1] = b;
+                }
+            }
+        }
+        return buttonsAt;
+    }
+    // trapButtons[i] holds every brown button connected to position i, or null if there is none
+    private static BrownButton[][] getTrapButtons(BrownButton[] brownButtons) {
+        BrownButton[][] trapButtons = new BrownButton[32*32][];
+        for (BrownButton b : brownButtons) {
+            int i = b.getTargetIndex();
+            if (i < 0 || i >= 32*32) continue;
+            if (trapButtons[i] == null) trapButtons[i] = new BrownButton[] {b};
+            else {
+                trapButtons[i] = Arrays.copyOf(trapButtons[i], trapButtons[i].length + 1);
+                trapButtons[i][trapButtons[i].length - 1] = b;
+            }
+        }
+        return trapButtons;
+    }
 
     /**
      * Convert the raw data of the .dat file into a level
@@ -166,6 +198,10 @@ public class LevelFactory {
 
         Layer layerBG = new ByteLayer(byteLayerBG);
         Layer layerFG = new ByteLayer(byteLayerFG);
+        GreenButton[] greenButtons = getGreenButtons(layerFG, layerBG);
+        RedButton[] redButtons = getRedButtons(cloneConnections);
+        BrownButton[] brownButtons = getBrownButtons(trapConnections);
+        BlueButton[] blueButtons = getBlueButtons(layerFG, layerBG);
 
         return new Level(
             levelNumber,
@@ -174,10 +210,12 @@ public class LevelFactory {
             hint,
             getToggleDoors(layerFG, layerBG),
             getPortals(layerFG, layerBG),
-            getGreenButtons(layerFG, layerBG),
-            getRedButtons(cloneConnections),
-            getBrownButtons(trapConnections),
-            getBlueButtons(layerFG, layerBG),
+            greenButtons,
+            redButtons,
+            brownButtons,
+            blueButtons,
+            getButtonsAt(greenButtons, redButtons, brownButtons, blueButtons),
+            getTrapButtons(brownButtons),
             new BitSet(trapConnections.length),
             layerBG,
             layerFG,
@@ -4,31 +4,43 @@ import emulator.Solution;
 import game.Level;
 import game.Step;
 
-import java.io.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
 
-import static emulator.SuperCC.CHIP_RELATIVE_CLICK;
+import static emulator.Emulator.CHIP_RELATIVE_CLICK;
 
 public class TWSReader{
 
-    private HashMap<Long, Long> lPassLevelOffsets = new HashMap<>();
-    private HashMap<Long, Long> passLevelOffsets = new HashMap<>();
+    private HashMap<Long, Integer> lPassLevelOffsets = new HashMap<>();
+    private HashMap<Long, Integer> passLevelOffsets = new HashMap<>();
 
-    private final File twsFile;
+    private final ByteBuffer buffer;
 
     public Solution readSolution(Level level) throws IOException{
-        byte[] password = level.getPassword();
+        return readSolution(level.getLevelNumber(), level.getPassword());
+    }
+
+    /**
+     * Read the solution of a level that has not been made yet.
+     * @param levelNumber The number of the level
+     * @param password The password of the level
+     */
+    public Solution readSolution(int levelNumber, byte[] password) throws IOException{
         Long pass = Integer.toUnsignedLong(
                 password[0] + 0x100 * password[1] + 0x10000 * password[2] + 0x1000000 * password[3]
         );
-        long lpass = pass + (Integer.toUnsignedLong(level.getLevelNumber()) << 32);
-        long solutionOffset;
+        long lpass = pass + (Integer.toUnsignedLong(levelNumber) << 32);
+        int solutionOffset;
         if (lPassLevelOffsets.containsKey(lpass)) solutionOffset = lPassLevelOffsets.get(lpass);
         else if (passLevelOffsets.containsKey(pass)) solutionOffset = passLevelOffsets.get(pass);
         else throw new IOException("Level not found in tws");
 
-        twsInputStream reader = new twsInputStream(twsFile);
-        reader.skip(solutionOffset);
+        TWSBuffer reader = new TWSBuffer(buffer, solutionOffset);
 
         int offset = reader.readInt();
         reader.readShort();                     // Level number
@@ -41,7 +53,7 @@ public class TWSReader{
         int solutionLength = reader.readInt();
 
         reader.counter = 0;
-        ByteArrayOutputStream writer = new ByteArrayOutputStream();
+        ByteArrayOutputStream writer = new ByteArrayOutputStream(Math.max(32, Math.min(solutionLength + 1, 1 << 20)));
         while (writer.size() + reader.solutionLengthOffset <= solutionLength){
             int b = reader.readByte();
             try {
@@ -68,38 +80,48 @@ public class TWSReader{
         return s;
     }
 
+    /**
+     * TWSReader constructor. The tws file is mapped into memory and the
+     * offset of every solution is read; the solutions themselves are only
+     * decoded by readSolution. Since every call to readSolution reads the
+     * mapped file with its own position, several threads can read solutions
+     * at once.
+     * @param twsFile The tws file
+     */
     public TWSReader (File twsFile) throws IOException{
-        this.twsFile = twsFile;
-        twsInputStream reader = new twsInputStream(twsFile);
-        try{
-            if (reader.readInt() != -1717882059) throw new IOException("Invalid signature");
-            if (reader.readByte() != 2) throw new IOException("Incorrect ruleset");
-            reader.readByte();
-            reader.readByte();
-            int length = reader.readByte();
-            reader.skip(length);
-            long offset = 8 + length;
-            int levelOffset;
-
-            while (offset < twsFile.length()){
-                levelOffset = reader.readInt();
-                int levelNumber = reader.readShort();
-                int password = reader.readInt();
-                passLevelOffsets.put(Integer.toUnsignedLong(password), offset);
-                lPassLevelOffsets.put(Integer.toUnsignedLong(password) + (Integer.toUnsignedLong(levelNumber) << 32), offset);
-                reader.skip(levelOffset - 6);       // 10: bytes read since levelOffset
-                offset += levelOffset + 4;              // 4: length of levelOffset
-            }
+        try (FileChannel channel = FileChannel.open(twsFile.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("File is too large");
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
         }
-        catch (IOException e){
-            reader.close();
-            throw e;
+        TWSBuffer reader = new TWSBuffer(buffer, 0);
+        if (reader.readInt() != -1717882059) throw new IOException("Invalid signature");
+        if (reader.readByte() != 2) throw new IOException("Incorrect ruleset");
+        reader.readByte();
+        reader.readByte();
+        int length = reader.readByte();
+        long offset = 8 + length;
+        int levelOffset;
+
+        while (offset < buffer.limit()){
+            reader.position((int) offset);
+            levelOffset = reader.readInt();
+            if (levelOffset < 0) throw new IOException("Invalid solution length");
+            int levelNumber = reader.readShort();
+            int password = reader.readInt();
+            passLevelOffsets.put(Integer.toUnsignedLong(password), (int) offset);
+            lPassLevelOffsets.put(Integer.toUnsignedLong(password) + (Integer.toUnsignedLong(levelNumber) << 32), (int) offset);
+            offset += levelOffset + 4;              // 4: length of levelOffset
         }
-        reader.close();
     }
 
-    private class twsInputStream extends FileInputStream{
-        private final byte[] DIRECTIONS = new byte[] {'u', 'l', 'd', 'r'};
+    /**
+     * Reads the mapped file from a position of its own. Reading past the end
+     * of the file returns -1, like the FileInputStream this replaces.
+     */
+    private static class TWSBuffer{
+        private final ByteBuffer buffer;
+        private static final byte[] DIRECTIONS = new byte[] {'u', 'l', 'd', 'r'};
+        private static final byte[] WAITS = new byte[] {'-', '-', '-'};
         
         public int solutionLengthOffset = 0;
 
@@ -132,12 +154,11 @@ public class TWSReader{
         }
         public void readFormat3(int b, ByteArrayOutputStream writer) throws IOException{
             counter += 1;
-            byte[] waits = new byte[] {'-', '-', '-'};
-            writer.write(waits);
+            writer.write(WAITS);
             writer.write(DIRECTIONS[(b >>> 2) & 0b11]);
-            writer.write(waits);
+            writer.write(WAITS);
             writer.write(DIRECTIONS[(b >>> 4) & 0b11]);
-            writer.write(waits);
+            writer.write(WAITS);
             writer.write(DIRECTIONS[(b >>> 6) & 0b11]);
         }
         public void readFormat4(int b, ByteArrayOutputStream writer) throws IOException{
@@ -163,28 +184,22 @@ public class TWSReader{
             }
         }
 
-        public twsInputStream (File file) throws FileNotFoundException{
-            super(file);
-        }
-        int readByte() throws IOException{
-            return read();
+        TWSBuffer (ByteBuffer buffer, int position){
+            this.buffer = buffer.duplicate();
+            this.buffer.position(position);
         }
-        int readShort() throws IOException{
-            return read() + 256*read();
+        void position(int position){
+            buffer.position(Math.min(position, buffer.limit()));
         }
-        int readInt() throws IOException{
-            return read() + 256 * read() + 65536 * read() + 16777216 * read();
+        int readByte(){
+            if (!buffer.hasRemaining()) return -1;
+            return buffer.get() & 0xFF;
         }
-        byte[] readAscii(int length) throws IOException{
-            byte[] asciiBytes = new byte[length];
-            read(asciiBytes);
-            return asciiBytes;
+        int readShort(){
+            return readByte() + 256*readByte();
         }
-        byte[] readEncodedAscii(int length) throws IOException{
-            byte[] asciiBytes = new byte[length];
-            read(asciiBytes);
-            for (int i = 0; i < length; i++) asciiBytes[i] = (byte) ((int) asciiBytes[i] ^ 0x99b);
-            return asciiBytes;
+        int readInt(){
+            return readByte() + 256 * readByte() + 65536 * readByte() + 16777216 * readByte();
         }
     }
 
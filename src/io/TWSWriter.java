@@ -5,7 +5,9 @@ import game.Level;
 import game.Position;
 
 import java.io.*;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 
 public class TWSWriter{
 
@@ -15,8 +17,30 @@ public class TWSWriter{
     private File twsFile;
     
     public static void write(File twsFile, Level level, Solution solution) {
-        try(TWSOutputStream writer = new TWSOutputStream(twsFile)) {
-            writer.writeTWSHeader(level);
+        try {
+            write(twsFile, Collections.singletonList(level), Collections.singletonList(solution));
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Write the solutions of several levels to one tws file. The file is
+     * built in memory and written in one go.
+     * @param twsFile The tws file
+     * @param levels The levels, in the order their solutions are written. The
+     *               header of the file names the last one.
+     * @param solutions The solution of each level
+     */
+    public static void write(File twsFile, List<Level> levels, List<Solution> solutions) throws IOException {
+        if (levels.size() != solutions.size()) throw new IllegalArgumentException("Every level needs one solution");
+        if (levels.isEmpty()) throw new IllegalArgumentException("No solutions to write");
+        TWSOutputStream writer = new TWSOutputStream();
+        writer.writeTWSHeader(levels.get(levels.size() - 1));
+        for (int i = 0; i < levels.size(); i++) {
+            Level level = levels.get(i);
+            Solution solution = solutions.get(i);
             writer.writeInt(writer.solutionLength(solution));
             writer.writeLevelHeader(level, solution);
             int timeBetween = 0;
@@ -30,12 +54,12 @@ public class TWSWriter{
                 }
             }
         }
-        catch (IOException e) {
-            e.printStackTrace();
+        try (FileOutputStream out = new FileOutputStream(twsFile)) {
+            writer.writeTo(out);
         }
     }
 
-    private static class TWSOutputStream extends FileOutputStream{
+    private static class TWSOutputStream extends ByteArrayOutputStream{
         // direction = 196
         /*
         98765432 10987654 32109876 54321098 76543210
@@ -95,8 +119,8 @@ public class TWSWriter{
             write(i >> 16);
             write(i >> 24);
         }
-        public TWSOutputStream(File file) throws IOException {
-            super(file);
+        public TWSOutputStream() {
+            super(4096);
         }
         public int solutionLength(Solution s) {
             int c = LEVEL_HEADER_SIZE;
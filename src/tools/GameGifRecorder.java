@@ -2,15 +2,16 @@ package tools;
 
 import emulator.SavestateManager;
 import emulator.SuperCC;
-import graphics.Gui;
+import graphics.GamePanel;
 
 import javax.imageio.stream.FileImageOutputStream;
 import javax.imageio.stream.ImageOutputStream;
 import javax.swing.*;
+import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
+import java.io.UncheckedIOException;
 
 public class GameGifRecorder {
     private JRadioButton a5FpsRadioButton;
@@ -21,6 +22,10 @@ public class GameGifRecorder {
     private JProgressBar progressBar;
     
     private static final int GIF_RECORDING_STATE = -1;
+    private static final int FRAME_SIZE = 32 * 20;
+    private static final int FRAME_TYPE = BufferedImage.TYPE_4BYTE_ABGR;
+    private static final int FRAME_POOL_SIZE = 3;
+    private static final Color TRANSPARENT = new Color(0, 0, 0, 0);
     
     public GameGifRecorder(SuperCC emulator) {
         ButtonGroup bg = new ButtonGroup();
@@ -33,32 +38,58 @@ public class GameGifRecorder {
                 @Override
                 protected Void doInBackground() throws Exception {
                 try {
-                    Gui window = emulator.getMainWindow();
+                    GamePanel gamePanel = emulator.getMainWindow().getGamePanel();
                     SavestateManager savestates = emulator.getSavestates();
                     int numHalfTicks = (int) (((Number) spinner.getValue()).doubleValue() * 10);
 
                     savestates.addSavestate(GIF_RECORDING_STATE);
                     emulator.showAction("Recording gif, please wait");
-                    List<BufferedImage> images = savestates.play(emulator, numHalfTicks);
                     int i = 1;
                     File outFile = new File("out.gif");
                     while (outFile.exists()) outFile = new File("out" + (i++) + ".gif");
                     ImageOutputStream output = new FileImageOutputStream(outFile);
                     int imageSkip = 1;
                     if (a5FpsRadioButton.isSelected()) imageSkip = 2;
+                    final int frameSkip = imageSkip;
                     int timePerFrame = 100 * imageSkip;
-                    GifSequenceWriter writer = new GifSequenceWriter(output, images.get(0).getType(), timePerFrame, true);
+                    GifSequenceWriter writer = new GifSequenceWriter(output, FRAME_TYPE, timePerFrame, true);
+                    GifFramePipeline frames = new GifFramePipeline(writer, FRAME_SIZE, FRAME_SIZE, FRAME_TYPE, FRAME_POOL_SIZE);
 
                     progressBar.setMinimum(0);
                     progressBar.setMaximum(numHalfTicks);
-                    for (i = 0; i < numHalfTicks; i += imageSkip) {
-                        writer.writeToSequence(images.get(i));
-                        progressBar.setValue(i);
-                        progressBar.repaint();
+                    int[] halfTick = {0};
+                    try {
+                        savestates.play(emulator, numHalfTicks, () -> {
+                            int t = halfTick[0]++;
+                            if (t >= numHalfTicks || t % frameSkip != 0) return;
+                            try {
+                                BufferedImage img = frames.nextFrame();
+                                Graphics2D g = img.createGraphics();
+                                g.setBackground(TRANSPARENT);
+                                g.clearRect(0, 0, FRAME_SIZE, FRAME_SIZE);
+                                gamePanel.paintComponent(g);
+                                g.dispose();
+                                frames.submit(img);
+                            }
+                            catch (IOException exc) {
+                                throw new UncheckedIOException(exc);
+                            }
+                            progressBar.setValue(t);
+                            progressBar.repaint();
+                        });
+                    }
+                    catch (UncheckedIOException exc) {
+                        throw exc.getCause();
+                    }
+                    finally {
+                        try {
+                            frames.finish();
+                        }
+                        finally {
+                            output.close();
+                        }
                     }
 
-                    writer.close();
-                    output.close();
                     emulator.getSavestates().load(GIF_RECORDING_STATE, emulator.getLevel());
                     emulator.showAction("Recorded " + outFile.getName());
                 }
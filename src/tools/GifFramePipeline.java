@@ -0,0 +1,141 @@
+package tools;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Streams frames to a GifSequenceWriter, which encodes them on its own
+ * thread. Frames are drawn into a small pool of images that are reused as
+ * soon as they have been encoded, so the memory needed does not depend on
+ * the length of the recording. Drawing waits for the encoder if all images
+ * in the pool are in use.
+ * <p>
+ * Frames must be taken with nextFrame() and given back with submit(), in
+ * order, from a single thread.
+ * </p>
+ */
+public class GifFramePipeline {
+
+    private static final BufferedImage END = new BufferedImage(1, 1, BufferedImage.TYPE_4BYTE_ABGR);
+
+    private final GifSequenceWriter writer;
+    private final BlockingQueue<BufferedImage> freeFrames;
+    private final BlockingQueue<BufferedImage> encodeQueue;
+    private final Thread encoderThread;
+    private volatile IOException encoderException;
+    private volatile int framesWritten;
+    private boolean finished;
+
+    public int getFramesWritten() {
+        return framesWritten;
+    }
+
+    /**
+     * Get an image to draw the next frame on. The contents of the image are
+     * those of an earlier frame, so the whole image should be drawn over.
+     * @return A width x height image from the pool
+     * @throws IOException if encoding an earlier frame failed
+     */
+    public BufferedImage nextFrame() throws IOException {
+        checkEncoder();
+        try {
+            return freeFrames.take();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the gif encoder");
+        }
+    }
+
+    /**
+     * Add a frame to the end of the gif. The image is given back to the pool
+     * once it has been encoded and must not be used again by the caller.
+     * @param frame An image returned by nextFrame()
+     */
+    public void submit(BufferedImage frame) throws IOException {
+        checkEncoder();
+        try {
+            encodeQueue.put(frame);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the gif encoder");
+        }
+    }
+
+    /**
+     * Wait for all submitted frames to be encoded and finish off the gif. This
+     * does not close the underlying stream. Calling this more than once has no
+     * effect, so it can be used to stop the encoder thread after an error.
+     * @throws IOException if encoding any frame failed
+     */
+    public void finish() throws IOException {
+        if (finished) return;
+        finished = true;
+        boolean interrupted = false;
+        while (true) {
+            try {
+                encodeQueue.put(END);
+                encoderThread.join();
+                break;
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        checkEncoder();
+        writer.close();
+    }
+
+    private void checkEncoder() throws IOException {
+        IOException e = encoderException;
+        if (e != null) throw new IOException("Failed to encode gif", e);
+    }
+
+    private void encode() {
+        try {
+            while (true) {
+                BufferedImage frame = encodeQueue.take();
+                if (frame == END) return;
+                // After a failure, keep going so that frames still go back to the pool
+                if (encoderException == null) {
+                    try {
+                        writer.writeToSequence(frame);
+                        framesWritten++;
+                    }
+                    catch (IOException e) {
+                        encoderException = e;
+                    }
+                }
+                freeFrames.put(frame);
+            }
+        }
+        catch (InterruptedException e) {
+            encoderException = new InterruptedIOException("Gif encoder was interrupted");
+        }
+    }
+
+    /**
+     * Start a new encoder thread.
+     * @param writer The gif to write the frames to
+     * @param width The width of each frame
+     * @param height The height of each frame
+     * @param imageType The type of each frame, one of the types in BufferedImage
+     * @param poolSize The number of frames that can be in use at once. 2 is
+     *                 enough for drawing and encoding to overlap.
+     */
+    public GifFramePipeline(GifSequenceWriter writer, int width, int height, int imageType, int poolSize) {
+        this.writer = writer;
+        freeFrames = new ArrayBlockingQueue<>(poolSize);
+        encodeQueue = new ArrayBlockingQueue<>(poolSize + 1);           // + 1 for END
+        for (int i = 0; i < poolSize; i++) freeFrames.add(new BufferedImage(width, height, imageType));
+        encoderThread = new Thread(this::encode, "Gif encoder");
+        encoderThread.setDaemon(true);
+        encoderThread.start();
+    }
+
+}
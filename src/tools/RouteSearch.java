@@ -0,0 +1,148 @@
+package tools;
+
+import emulator.SuperCC;
+import emulator.TickFlags;
+import game.Level;
+import game.Position;
+import game.Step;
+import io.DatParser;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.Arrays;
+
+/**
+ * A window for RouteSearchEngine. The search starts from the current state
+ * of the level, and the route found is played on the level as if the moves
+ * had been entered by hand.
+ */
+public class RouteSearch {
+
+    private static final String EXIT = "Exit", POSITION = "Position (x, y)", CHIPS_LEFT = "Chips left";
+    private static final int UPDATE_RATE = 500;                     // ms between label updates
+    private static final int DEFAULT_MAX_TICKS = 200;
+
+    private final SuperCC emulator;
+    private final JFrame frame;
+    private final JComboBox<String> goalBox = new JComboBox<>(new String[] {EXIT, POSITION, CHIPS_LEFT});
+    private final JTextField goalField = new JTextField(8);
+    private final JSpinner maxTicksSpinner = new JSpinner(new SpinnerNumberModel(DEFAULT_MAX_TICKS, 1, Integer.MAX_VALUE, 10));
+    private final JButton startStopButton = new JButton("Search");
+    private final JLabel resultsLabel = new JLabel("Searched 0 states");
+    private final Timer updateTimer;
+
+    private RouteSearchEngine engine;
+
+    public RouteSearch(SuperCC emulator) {
+        this.emulator = emulator;
+
+        updateTimer = new Timer(UPDATE_RATE, e -> updateText());
+        goalBox.addActionListener(e -> goalField.setEnabled(!EXIT.equals(goalBox.getSelectedItem())));
+        goalField.setEnabled(false);
+        startStopButton.addActionListener(e -> {
+            if (engine != null) engine.stop();
+            else start();
+        });
+
+        JPanel panel = new JPanel(new GridLayout(0, 2, 5, 5));
+        panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        panel.add(new JLabel("Goal"));
+        panel.add(goalBox);
+        panel.add(new JLabel("Goal value"));
+        panel.add(goalField);
+        panel.add(new JLabel("Maximum half-ticks"));
+        panel.add(maxTicksSpinner);
+        panel.add(resultsLabel);
+        panel.add(startStopButton);
+
+        frame = new JFrame("Route Search");
+        frame.setContentPane(panel);
+        frame.pack();
+        frame.setLocationRelativeTo(emulator.getMainWindow());
+        frame.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                if (engine != null) engine.stop();
+            }
+        });
+        frame.setVisible(true);
+    }
+
+    private RouteSearchEngine.Goal readGoal() {
+        String goal = (String) goalBox.getSelectedItem();
+        if (goal.equals(EXIT)) return RouteSearchEngine.Goal.exit();
+        String[] values = goalField.getText().split("[,\\s]+");
+        try {
+            if (goal.equals(CHIPS_LEFT) && values.length == 1) {
+                return RouteSearchEngine.Goal.chipsLeft(Integer.parseInt(values[0]));
+            }
+            if (goal.equals(POSITION) && values.length == 2) {
+                Position position = new Position(Integer.parseInt(values[0]), Integer.parseInt(values[1]));
+                if (position.isValid()) return RouteSearchEngine.Goal.position(position);
+            }
+        }
+        catch (NumberFormatException e) {}
+        JOptionPane.showMessageDialog(frame, "Invalid goal value");
+        return null;
+    }
+
+    private void start() {
+        RouteSearchEngine.Goal goal = readGoal();
+        if (goal == null) return;
+        Level level = emulator.getLevel();
+        byte[] startingState = level.save();
+        DatParser dat = emulator.getDat();
+        int levelNumber = level.getLevelNumber();
+        int rngSeed = level.getRngSeed();
+        Step step = level.getStep();
+        int maxTicks = ((Number) maxTicksSpinner.getValue()).intValue();
+        RouteSearchEngine engine = new RouteSearchEngine(() -> dat.parseLevel(levelNumber, rngSeed, step),
+            startingState, goal, maxTicks);
+        this.engine = engine;
+        startStopButton.setText("Stop");
+        updateTimer.start();
+
+        new SwingWorker<RouteSearchEngine.Result, Void>() {
+            @Override
+            protected RouteSearchEngine.Result doInBackground() throws Exception {
+                return engine.search();
+            }
+
+            @Override
+            protected void done() {
+                updateTimer.stop();
+                RouteSearch.this.engine = null;
+                startStopButton.setText("Search");
+                try {
+                    RouteSearchEngine.Result result = get();
+                    resultsLabel.setText("Searched " + result.statesExplored + " states: " + result.result);
+                    if (result.moves != null) playRoute(startingState, result);
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                    emulator.throwError("Route search failed: " + e.getMessage());
+                }
+            }
+        }.execute();
+    }
+
+    private void playRoute(byte[] startingState, RouteSearchEngine.Result result) {
+        Level level = emulator.getLevel();
+        if (!Arrays.equals(level.save(), startingState)) {
+            emulator.throwError("The level changed during the search, so the route was not played");
+            return;
+        }
+        for (byte b : result.moves) emulator.tick(b, TickFlags.GAME_PLAY);
+        emulator.showAction("Found a route of " + result.ticks + " half-ticks");
+    }
+
+    private void updateText() {
+        RouteSearchEngine engine = this.engine;
+        if (engine == null) return;
+        resultsLabel.setText("Searched " + engine.getStatesExplored() + " states, " + engine.getCurrentTick() + " half-ticks");
+    }
+
+}
@@ -0,0 +1,293 @@
+package tools;
+
+import emulator.Emulator;
+import emulator.SavestateCodec;
+import game.Level;
+import game.Position;
+import util.TranspositionTable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds the fastest sequence of moves from a savestate to a goal by
+ * breadth-first search over the moves u, l, d, r and -.
+ * <p>
+ * States are searched in order of their tick number, so the first route
+ * found takes the least time, even though a move can take one or two
+ * half-ticks. All states with the same tick number are expanded in parallel,
+ * each worker thread on its own level. A state is skipped if Chip is dead,
+ * or if a state with the same state hash is in the transposition table.
+ * </p>
+ * <p>
+ * The search uses at most about half of the maximum heap size. The states
+ * waiting to be expanded are stored compressed, and the transposition table
+ * has a fixed size. If the frontier runs out of memory, the search stops
+ * with MEMORY_LIMIT instead of throwing an OutOfMemoryError.
+ * </p>
+ */
+public class RouteSearchEngine {
+
+    public interface LevelFactory {
+        Level makeLevel() throws Exception;
+    }
+
+    /**
+     * The condition a route has to reach. The level passed to isReached must
+     * not be modified.
+     */
+    public interface Goal {
+        boolean isReached(Level level);
+
+        static Goal exit() {
+            return Level::isCompleted;
+        }
+
+        static Goal position(Position position) {
+            int index = position.getIndex();
+            return level -> !level.getChip().isDead() && level.getChip().getIndex() == index;
+        }
+
+        static Goal chipsLeft(int chipsLeft) {
+            return level -> !level.getChip().isDead() && level.getChipsLeft() <= chipsLeft;
+        }
+    }
+
+    public static final String FOUND = "found", NOT_FOUND = "not found", MEMORY_LIMIT = "memory limit reached",
+        STOPPED = "stopped";
+    private static final byte[] MOVES = {Emulator.UP, Emulator.LEFT, Emulator.DOWN, Emulator.RIGHT, Emulator.WAIT};
+    private static final int NODE_BYTES = 64;                       // Estimated size of a Node without its state
+
+    private final LevelFactory levelFactory;
+    private final byte[] startingState;
+    private final Goal goal;
+    private final int maxTicks;
+    private final int numThreads;
+    private final long memoryBudget;
+
+    private final AtomicLong statesExplored = new AtomicLong(0);
+    private final AtomicLong frontierBytes = new AtomicLong(0);
+    private volatile int currentTick;
+    private volatile boolean killThreadFlag = false;
+    private TranspositionTable visited;
+
+    public static class Result {
+        public final String result;
+        public final byte[] moves;
+        public final int ticks;
+        public final long statesExplored;
+
+        Result(String result, byte[] moves, int ticks, long statesExplored) {
+            this.result = result;
+            this.moves = moves;
+            this.ticks = ticks;
+            this.statesExplored = statesExplored;
+        }
+    }
+
+    public long getStatesExplored() {
+        return statesExplored.get();
+    }
+
+    /**
+     * @return The number of half-ticks after the starting state that the
+     * search has reached
+     */
+    public int getCurrentTick() {
+        return currentTick;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Stop a running search. search() returns with STOPPED once the workers
+     * are done with the state they are expanding.
+     */
+    public void stop() {
+        killThreadFlag = true;
+    }
+
+    /**
+     * Run the search on the calling thread and the worker threads. This can
+     * only be called once.
+     * @return The result. moves is the route as movement keys, for example
+     * to be played with Emulator.tick(byte, TickFlags.GAME_PLAY), or null if
+     * no route was found.
+     */
+    public Result search() throws Exception {
+        Level[] levels = new Level[numThreads];
+        for (int i = 0; i < numThreads; i++) levels[i] = levelFactory.makeLevel();
+        levels[0].load(startingState);
+        int startTick = levels[0].getTickNumber();
+        if (goal.isReached(levels[0])) return new Result(FOUND, new byte[0], 0, 0);
+
+        visited = new TranspositionTable(memoryBudget / 4);
+        visited.add(levels[0].getStateHash());
+
+        // frontiers[i] holds the states i half-ticks after the current tick
+        List<List<Node>> frontiers = new ArrayList<>();
+        frontiers.add(new ArrayList<>());
+        frontiers.get(0).add(new Node(null, (byte) 0, startTick, SavestateCodec.RLE.encode(startingState, null)));
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            while (true) {
+                if (frontiers.isEmpty()) return result(NOT_FOUND, null);
+                List<Node> frontier = frontiers.remove(0);
+                if (frontier.isEmpty()) continue;
+                int tick = frontier.get(0).tick;
+                currentTick = tick - startTick;
+                if (currentTick >= maxTicks) return result(NOT_FOUND, null);
+                if (killThreadFlag) return result(STOPPED, null);
+
+                List<Future<Expansion>> futures = new ArrayList<>();
+                for (int i = 0; i < numThreads; i++) {
+                    futures.add(executor.submit(new Expander(levels[i], frontier, i, tick)));
+                }
+                Node bestGoal = null;
+                boolean memoryLimit = false;
+                for (Future<Expansion> future : futures) {
+                    Expansion expansion;
+                    try {
+                        expansion = future.get();
+                    }
+                    catch (ExecutionException e) {
+                        killThreadFlag = true;
+                        if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+                        throw e;
+                    }
+                    memoryLimit |= expansion.memoryLimit;
+                    if (expansion.goal != null && (bestGoal == null || expansion.goal.tick < bestGoal.tick)) {
+                        bestGoal = expansion.goal;
+                    }
+                    for (Node child : expansion.children) {
+                        int offset = Math.max(child.tick - tick, 1) - 1;
+                        while (frontiers.size() <= offset) frontiers.add(new ArrayList<>());
+                        frontiers.get(offset).add(child);
+                    }
+                }
+                if (bestGoal != null) {
+                    currentTick = bestGoal.tick - startTick;
+                    return result(FOUND, bestGoal);
+                }
+                if (memoryLimit) return result(MEMORY_LIMIT, null);
+                if (killThreadFlag) return result(STOPPED, null);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+            visited = null;
+        }
+    }
+
+    private Result result(String result, Node goalNode) {
+        if (goalNode == null) return new Result(result, null, currentTick, statesExplored.get());
+        int length = 0;
+        for (Node n = goalNode; n.parent != null; n = n.parent) length++;
+        byte[] moves = new byte[length];
+        for (Node n = goalNode; n.parent != null; n = n.parent) moves[--length] = n.move;
+        return new Result(result, moves, currentTick, statesExplored.get());
+    }
+
+    private static class Node {
+        private final Node parent;
+        private final byte move;
+        private final int tick;
+        private byte[] state;                           // RLE compressed, null once the node has been expanded
+
+        Node(Node parent, byte move, int tick, byte[] state) {
+            this.parent = parent;
+            this.move = move;
+            this.tick = tick;
+            this.state = state;
+        }
+    }
+
+    private static class Expansion {
+        private final List<Node> children = new ArrayList<>();
+        private Node goal;
+        private boolean memoryLimit;
+    }
+
+    /**
+     * Expands every numThreads-th node of the frontier, starting at offset.
+     * The node is loaded into the level once, and each move is made on a
+     * fork of it.
+     */
+    private class Expander implements Callable<Expansion> {
+        private final Level level;
+        private final List<Node> frontier;
+        private final int offset;
+        private final int tick;
+
+        @Override
+        public Expansion call() {
+            Expansion expansion = new Expansion();
+            for (int i = offset; i < frontier.size() && !killThreadFlag; i += numThreads) {
+                Node node = frontier.get(i);
+                level.load(SavestateCodec.RLE.decode(node.state, null));
+                for (byte move : MOVES) {
+                    Level child = level.fork();
+                    Emulator.tick(child, move, true);
+                    if (goal.isReached(child)) {
+                        Node goalNode = new Node(node, move, child.getTickNumber(), null);
+                        if (expansion.goal == null || goalNode.tick < expansion.goal.tick) expansion.goal = goalNode;
+                        continue;
+                    }
+                    if (child.getChip().isDead()) continue;
+                    if (!visited.add(child.getStateHash())) continue;
+                    byte[] compressed = SavestateCodec.RLE.encode(child.save(), null);
+                    long bytes = frontierBytes.addAndGet(compressed.length + NODE_BYTES);
+                    if (bytes > memoryBudget / 2) {
+                        expansion.memoryLimit = true;
+                        killThreadFlag = true;
+                        break;
+                    }
+                    expansion.children.add(new Node(node, move, Math.max(child.getTickNumber(), tick + 1), compressed));
+                }
+                frontierBytes.addAndGet(-node.state.length);
+                node.state = null;
+                statesExplored.incrementAndGet();
+            }
+            return expansion;
+        }
+
+        Expander(Level level, List<Node> frontier, int offset, int tick) {
+            this.level = level;
+            this.frontier = frontier;
+            this.offset = offset;
+            this.tick = tick;
+        }
+    }
+
+    /**
+     * @param levelFactory Creates the level of each worker thread. The level
+     *                     will be loaded from startingState before it is used.
+     * @param startingState The savestate to search from
+     * @param goal The goal to search for
+     * @param maxTicks The maximum number of half-ticks after the starting
+     *                 state to search
+     * @param numThreads The number of worker threads
+     */
+    public RouteSearchEngine(LevelFactory levelFactory, byte[] startingState, Goal goal, int maxTicks, int numThreads) {
+        this.levelFactory = levelFactory;
+        this.startingState = startingState;
+        this.goal = goal;
+        this.maxTicks = maxTicks;
+        this.numThreads = numThreads;
+        memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+    }
+
+    public RouteSearchEngine(LevelFactory levelFactory, byte[] startingState, Goal goal, int maxTicks) {
+        this(levelFactory, startingState, goal, maxTicks, Runtime.getRuntime().availableProcessors());
+    }
+
+}
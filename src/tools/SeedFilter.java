@@ -0,0 +1,250 @@
+package tools;
+
+import emulator.Solution;
+import game.RNG;
+import io.DatParser;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.IntConsumer;
+
+/**
+ * Finds the seeds for which the rng gives required outcomes at known calls,
+ * without playing the level.
+ * <p>
+ * The value of the k-th call after the rng is set to a seed is an affine
+ * function of the seed, RNG.jump(seed, k), so checking a condition takes a
+ * multiplication and an addition. The outcome of each kind of call depends
+ * on the high bits of the value only, which means that the values giving an
+ * outcome form a single range. forEach goes through the range of the most
+ * restrictive condition and maps each value back to its seed, instead of
+ * going through all 2^31 seeds.
+ * </p>
+ * <p>
+ * Call numbers can be found with Level.getRngCalls(), which counts from the
+ * point where the seed was set.
+ * </p>
+ * <p>
+ * Usage: java tools.SeedFilter call kind outcome [call kind outcome ...] [levelset.dat level solution.json|solution.tws]
+ * </p>
+ * <p>
+ * This prints the number of seeds that meet the conditions and the first
+ * of them. If a level and solution are given, the solution is then checked
+ * against those seeds by a SeedSearchEngine with this filter.
+ * </p>
+ */
+public class SeedFilter {
+
+    public enum Call {
+        RANDOM4(4),                         // Random force floors, and walkers and blobs with the move cheat
+        PERMUTATION3(6),                    // Walkers
+        PERMUTATION4(24);                   // Blobs
+
+        private final int outcomes;
+
+        /**
+         * @return The outcome of this kind of call when it gives an rng value
+         * @see RNG#random4Of(int)
+         * @see RNG#permutation3Of(int)
+         * @see RNG#permutation4Of(int)
+         */
+        public int outcome(int value) {
+            switch (this) {
+                case RANDOM4: return RNG.random4Of(value);
+                case PERMUTATION3: return RNG.permutation3Of(value);
+                default: return RNG.permutation4Of(value);
+            }
+        }
+
+        public int getNumOutcomes() {
+            return outcomes;
+        }
+
+        /**
+         * @return The lowest value that gives an outcome. The values that
+         * give it are the range up to endValue.
+         */
+        private long lowestValue(int outcome) {
+            switch (this) {
+                case RANDOM4: return (long) outcome << 29;
+                case PERMUTATION3: return ((long) (outcome % 2) << 30) + ceilThird(outcome / 2, 30);
+                default: return ((long) (outcome % 2) << 30 | (long) (outcome / 6) << 28) + ceilThird(outcome / 2 % 3, 28);
+            }
+        }
+
+        /**
+         * @return The first value in [lowestValue(outcome), RNG.LAST_SEED + 1]
+         * that does not give outcome
+         */
+        private long endValue(int outcome) {
+            switch (this) {
+                case RANDOM4: return (long) (outcome + 1) << 29;
+                case PERMUTATION3: return ((long) (outcome % 2) << 30) + ceilThird(outcome / 2 + 1, 30);
+                default: return ((long) (outcome % 2) << 30 | (long) (outcome / 6) << 28) + ceilThird(outcome / 2 % 3 + 1, 28);
+            }
+        }
+
+        // The smallest x with 3 * x >= i * 2^bits, so that the rng gives i for x
+        private static long ceilThird(int i, int bits) {
+            return ((long) i << bits) / 3 + (((long) i << bits) % 3 == 0 ? 0 : 1);
+        }
+
+        Call(int outcomes) {
+            this.outcomes = outcomes;
+        }
+    }
+
+    /**
+     * The k-th call after the seed is set must be of a kind and give an
+     * outcome.
+     */
+    public static class Condition {
+        public final long call;
+        public final Call kind;
+        public final int outcome;
+        private final int multiplier, increment;           // jump(seed, call) == multiplier * seed + increment
+
+        /**
+         * @param seed A seed
+         * @return true if the seed meets the condition
+         */
+        public boolean matches(int seed) {
+            return kind.outcome((multiplier * seed + increment) & RNG.LAST_SEED) == outcome;
+        }
+
+        private long size() {
+            return kind.endValue(outcome) - kind.lowestValue(outcome);
+        }
+
+        /**
+         * @param call The call number, 1 for the first value generated
+         *             after the seed is set
+         * @param kind The kind of call
+         * @param outcome The required outcome, as given by kind.outcome
+         */
+        public Condition(long call, Call kind, int outcome) {
+            if (call < 1) throw new IllegalArgumentException("Calls are counted from 1");
+            if (outcome < 0 || outcome >= kind.getNumOutcomes()) throw new IllegalArgumentException("Invalid outcome: " + outcome);
+            this.call = call;
+            this.kind = kind;
+            this.outcome = outcome;
+            increment = RNG.jump(0, call);
+            multiplier = RNG.jump(1, call) - increment;
+        }
+    }
+
+    private final List<Condition> conditions;
+
+    public List<Condition> getConditions() {
+        return conditions;
+    }
+
+    /**
+     * @param seed A seed
+     * @return true if the seed meets every condition
+     */
+    public boolean matches(int seed) {
+        for (Condition c : conditions) if (!c.matches(seed)) return false;
+        return true;
+    }
+
+    /**
+     * Pass every seed that meets all conditions to an action, in no
+     * particular order.
+     * @param action The action to perform on each seed
+     */
+    public void forEach(IntConsumer action) {
+        if (conditions.isEmpty()) {
+            for (long seed = 0; seed <= RNG.LAST_SEED; seed++) action.accept((int) seed);
+            return;
+        }
+        Condition narrowest = conditions.get(0);
+        for (Condition c : conditions) if (c.size() < narrowest.size()) narrowest = c;
+        Condition[] others = new Condition[conditions.size() - 1];
+        int n = 0;
+        for (Condition c : conditions) if (c != narrowest) others[n++] = c;
+
+        // seed = jump(value, -call) is affine in value as well, so it goes up by a constant step
+        long start = narrowest.kind.lowestValue(narrowest.outcome);
+        long end = narrowest.kind.endValue(narrowest.outcome);
+        int seed = RNG.jump((int) start, -narrowest.call);
+        int step = RNG.jump(1, -narrowest.call) - RNG.jump(0, -narrowest.call);
+        values:
+        for (long value = start; value < end; value++, seed = (seed + step) & RNG.LAST_SEED) {
+            for (Condition c : others) if (!c.matches(seed)) continue values;
+            action.accept(seed);
+        }
+    }
+
+    /**
+     * @return The number of seeds that meet all conditions
+     */
+    public long count() {
+        long[] count = new long[1];
+        forEach(seed -> count[0]++);
+        return count[0];
+    }
+
+    /**
+     * @param limit The maximum number of seeds to return
+     * @return The smallest seeds that meet all conditions, in order
+     */
+    public List<Integer> getSeeds(int limit) {
+        List<Integer> seeds = new ArrayList<>();
+        if (limit <= 0) return seeds;
+        PriorityQueue<Integer> largest = new PriorityQueue<>(limit, (a, b) -> Integer.compare(b, a));
+        forEach(seed -> {
+            if (largest.size() < limit) largest.add(seed);
+            else if (seed < largest.peek()) {
+                largest.poll();
+                largest.add(seed);
+            }
+        });
+        seeds.addAll(largest);
+        seeds.sort(null);
+        return seeds;
+    }
+
+    public SeedFilter(List<Condition> conditions) {
+        this.conditions = new ArrayList<>(conditions);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3 || args.length % 3 != 0) {
+            System.err.println("Usage: java tools.SeedFilter call kind outcome [call kind outcome ...] [levelset.dat level solution.json|solution.tws]");
+            System.err.println("kind is one of " + Arrays.toString(Call.values()));
+            System.exit(2);
+        }
+        // The last three arguments are the level if they do not start with a call number
+        int numConditionArgs = args.length;
+        boolean search = !args[args.length - 3].matches("\\d+");
+        if (search) numConditionArgs -= 3;
+        List<Condition> conditions = new ArrayList<>();
+        for (int i = 0; i < numConditionArgs; i += 3) {
+            conditions.add(new Condition(Long.parseLong(args[i]), Call.valueOf(args[i + 1].toUpperCase()), Integer.parseInt(args[i + 2])));
+        }
+        SeedFilter filter = new SeedFilter(conditions);
+        System.out.printf("%d seeds meet the conditions%n", filter.count());
+        System.out.println("First seeds: " + filter.getSeeds(20));
+        if (!search) return;
+
+        DatParser dat = new DatParser(new File(args[args.length - 3]));
+        int levelNumber = Integer.parseInt(args[args.length - 2]);
+        Solution solution = SeedSearchCoordinator.readSolution(dat, levelNumber, new File(args[args.length - 1]));
+        byte[] startingState = dat.parseLevel(levelNumber, 0, solution.step).save();
+        SeedSearchEngine engine = new SeedSearchEngine(() -> dat.parseLevel(levelNumber, 0, solution.step), startingState, solution);
+        engine.setFilter(filter);
+        long startTime = System.nanoTime();
+        engine.start();
+        while (!engine.isFinished()) Thread.sleep(100);
+        List<Integer> successes = engine.getSuccessfulSeeds();
+        System.out.printf("%d successes, %d errors in %.2f s%n", engine.getSuccesses(), engine.getErrors(),
+                          (System.nanoTime() - startTime) / 1e9);
+        successes.sort(null);
+        if (!successes.isEmpty()) System.out.println("Successful seeds: " + successes.subList(0, Math.min(successes.size(), 20)));
+    }
+
+}
@@ -2,11 +2,15 @@ package tools;
 
 import emulator.Solution;
 import emulator.SuperCC;
-import emulator.TickFlags;
-import game.RNG;
+import game.Step;
+import io.DatParser;
 
 import javax.swing.*;
 
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
 import java.text.DecimalFormat;
 
 public class SeedSearch {
@@ -18,77 +22,101 @@ public class SeedSearch {
     private JLabel resultsLabel;
     private JLabel exampleSeedLabel;
     
-    private static final int UPDATE_RATE = 1000;
+    private static final int UPDATE_RATE = 500;                     // ms between label updates
     
-    private final byte[] startingState;
-    private int seed = 0;
-    private boolean killThreadFlag = false;
-    private boolean running = false;
+    private final SeedSearchEngine engine;
+    private final long fingerprint;
+    private final File resultsFile;
+    private boolean fileOpened = false;
+    private final Timer updateTimer;
     private DecimalFormat df;
     
-    private int successes = 0;
-    private int attempts = 0;
-    private int lastSuccess = -1;
-    
     public SeedSearch(SuperCC emulator, Solution solution) {
     
-        emulator.loadLevel(emulator.getLevel().getLevelNumber(), seed, solution.step, false);
-        startingState = emulator.getLevel().save();
+        emulator.loadLevel(emulator.getLevel().getLevelNumber(), 0, solution.step, false);
+        byte[] startingState = emulator.getLevel().save();
         
         this.emulator = emulator;
         this.solution = solution;
+        
+        DatParser dat = emulator.getDat();
+        int levelNumber = emulator.getLevel().getLevelNumber();
+        Step step = solution.step;
+        engine = new SeedSearchEngine(() -> dat.parseLevel(levelNumber, 0, step), startingState, solution);
+        fingerprint = SeedSearchFile.fingerprint(startingState, solution);
+        resultsFile = new File(emulator.getSeedSearchPath(fingerprint));
+        if (SeedSearchFile.exists(resultsFile)) openResultsFile();
     
         resultsLabel.setText("Successes: 0/0 (0%)");
         df = new DecimalFormat("##.####");
+        if (engine.getAttempts() > 0) updateText();
+        
+        updateTimer = new Timer(UPDATE_RATE, (e) -> {
+            updateText();
+            if (!engine.isRunning()) ((Timer) e.getSource()).stop();
+        });
     
         startStopButton.addActionListener((e) -> {
-            if (running) killThreadFlag = true;
-            else new SeedSearchThread().start();
+            if (engine.isRunning()) engine.stop();
+            else {
+                if (!fileOpened) openResultsFile();
+                engine.start();
+                updateTimer.start();
+            }
         });
         
         JFrame frame = new JFrame("Seed Search");
         frame.setContentPane(panel1);
         frame.pack();
         frame.setLocationRelativeTo(emulator.getMainWindow());
+        frame.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                Thread closer = new Thread(() -> {
+                    try {
+                        engine.close();
+                    }
+                    catch (IOException | InterruptedException ex) {
+                        ex.printStackTrace();
+                    }
+                }, "Seed search close");
+                closer.start();
+            }
+        });
         frame.setVisible(true);
     }
     
+    /**
+     * Open the results file, resuming the search in it if it has results
+     * for this solution. The file is only created when the search is first
+     * started, so opening this window does not leave files behind.
+     */
+    private void openResultsFile() {
+        fileOpened = true;
+        try {
+            engine.setFile(new SeedSearchFile(resultsFile, fingerprint));
+        }
+        catch (IOException e) {
+            emulator.throwError("Could not open the seed search file, results will not be saved:\n" + e.getLocalizedMessage());
+        }
+    }
+    
     private void createUIComponents() {
         resultsLabel = new JLabel();
         exampleSeedLabel = new JLabel("Example seed:");
     }
     
     private void updateText() {
-        resultsLabel.setText("Successes: "+successes+"/"+attempts+" ("+df.format(100.0 * (double) successes / (double) attempts)+"%)");
+        long successes = engine.getSuccesses();
+        long attempts = engine.getAttempts();
+        long errors = engine.getErrors();
+        resultsLabel.setText("Successes: "+successes+"/"+attempts+" ("+df.format(100.0 * (double) successes / (double) attempts)+"%)"
+                             + (errors > 0 ? ", errors: "+errors : ""));
         resultsLabel.repaint();
+        int lastSuccess = engine.getLastSuccess();
         if (lastSuccess >= 0) exampleSeedLabel.setText("Example seed: " + lastSuccess);
         exampleSeedLabel.repaint();
     }
     
-    private class SeedSearchThread extends Thread {
-        public void run(){
-            running = true;
-            killThreadFlag = false;
-            while (!killThreadFlag && seed >= 0) {
-                if (verifySeed(seed)) {
-                    successes++;
-                    lastSuccess = seed;
-                }
-                attempts++;
-                seed++;
-                if (seed % UPDATE_RATE == 0) updateText();
-            }
-            running = false;
-            killThreadFlag = false;
-        }
-    }
-    
-    public boolean verifySeed(int seed) {
-        solution.rngSeed = seed;
-        emulator.getLevel().load(startingState);
-        emulator.getLevel().cheats.setRng(seed);
-        solution.loadMoves(emulator, TickFlags.LIGHT, false);
-        return emulator.getLevel().isCompleted();
-    }
-    
 }
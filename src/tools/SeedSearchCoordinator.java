@@ -0,0 +1,408 @@
+package tools;
+
+import emulator.Solution;
+import game.Step;
+import io.DatParser;
+import io.TWSReader;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out the seeds of a seed search to SeedSearchWorker processes over
+ * TCP and collects their results in a SeedSearchFile, so one search can use
+ * the cores of several machines.
+ * <p>
+ * The seeds are split into leases of up to chunksPerLease chunks. A worker
+ * asks for a lease, and sends the results of each chunk as soon as it is
+ * done. While it is connected it also sends a heartbeat every quarter of
+ * leaseTimeout, so a chunk may take longer than that. Results and heartbeats
+ * renew the leases of a worker. If a worker sends nothing for leaseTimeout
+ * ms, or disconnects, the chunks it has not sent are leased to the next
+ * worker that asks. Results are only stored for chunks that are leased to
+ * the worker that sends them, and every chunk is only stored once.
+ * </p>
+ * <p>
+ * Workers have to load the same level and solution. They send the
+ * fingerprint of their search first, and are turned away if it differs.
+ * The results file is checkpointed every CHECKPOINT_INTERVAL, and a
+ * coordinator started with an existing file only leases the chunks that
+ * are not in it.
+ * </p>
+ * <p>
+ * Protocol, with numbers written by DataOutputStream:
+ * worker HELLO fingerprint, answered by HELLO heartbeatInterval (ms) or
+ * ERROR message;
+ * worker LEASE, answered by LEASE firstChunk endChunk or DONE;
+ * worker RESULT chunk followed by CHUNK_SIZE / 64 words, not answered;
+ * worker HEARTBEAT, not answered.
+ * A LEASE request waits while every chunk is done or leased.
+ * </p>
+ * <p>
+ * Usage: java tools.SeedSearchCoordinator levelset.dat level solution.json|solution.tws results.seeds [port] [lease timeout in s]
+ * </p>
+ */
+public class SeedSearchCoordinator implements Closeable {
+
+    public static final int DEFAULT_PORT = 27027;
+    public static final int DEFAULT_CHUNKS_PER_LEASE = 64;
+    public static final long DEFAULT_LEASE_TIMEOUT = 60000;         // ms
+    private static final long CHECKPOINT_INTERVAL = 30000;          // ms
+    private static final int WORDS_PER_CHUNK = SeedSearchFile.CHUNK_SIZE / 64;
+
+    static final byte HELLO = 1, LEASE = 2, RESULT = 3, DONE = 4, ERROR = 5, HEARTBEAT = 6;
+
+    private final SeedSearchFile file;
+    private final long fingerprint;
+    private final int chunksPerLease;
+    private final long leaseTimeout;
+    private final ServerSocket serverSocket;
+
+    private final List<Lease> leases = new ArrayList<>();
+    private final List<Connection> connections = new ArrayList<>();
+    private int nextChunk = 0;
+    private long reassignedLeases = 0;
+    private volatile boolean closed = false;
+    private final AtomicLong lastCheckpoint = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * The chunks from next to end, less the ones that are done, belong to
+     * owner until expiry.
+     */
+    private static class Lease {
+        private int next;
+        private final int end;
+        private long expiry;
+        private Connection owner;
+
+        Lease(int next, int end, long expiry, Connection owner) {
+            this.next = next;
+            this.end = end;
+            this.expiry = expiry;
+            this.owner = owner;
+        }
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+    public long getSearchedSeeds() {
+        return file.getSearchedSeeds();
+    }
+    public long getSuccesses() {
+        return file.countSuccesses(0, SeedSearchFile.NUM_SEEDS);
+    }
+    public synchronized int getNumWorkers() {
+        return connections.size();
+    }
+    /**
+     * @return The number of leases that were taken away from a worker that
+     * disconnected or took too long
+     */
+    public synchronized long getReassignedLeases() {
+        return reassignedLeases;
+    }
+
+    public boolean isFinished() {
+        return file.getSearchedSeeds() == SeedSearchFile.NUM_SEEDS;
+    }
+
+    /**
+     * Wait until every chunk is done, the coordinator is closed or a timeout
+     * has passed.
+     * @param timeout The maximum time to wait in ms
+     * @return true if every chunk is done
+     */
+    public synchronized boolean awaitFinished(long timeout) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        for (long time = System.currentTimeMillis(); !isFinished() && !closed && time < end; time = System.currentTimeMillis()) {
+            wait(end - time);
+        }
+        return isFinished();
+    }
+
+    /**
+     * Start accepting workers on a background thread.
+     */
+    public void start() {
+        Thread acceptor = new Thread(() -> {
+            while (!closed) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    socket.setKeepAlive(true);
+                    socket.setTcpNoDelay(true);
+                    Connection connection = new Connection(socket);
+                    synchronized (this) {
+                        connections.add(connection);
+                    }
+                    Thread t = new Thread(connection, "Seed search coordinator " + socket.getRemoteSocketAddress());
+                    t.setDaemon(true);
+                    t.start();
+                }
+                catch (IOException e) {
+                    if (!closed) e.printStackTrace();
+                }
+            }
+        }, "Seed search coordinator");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stop accepting workers, disconnect the ones that are connected and
+     * close the results file. Chunks that are not done are searched again
+     * by the next coordinator that uses the file.
+     */
+    @Override
+    public void close() throws IOException {
+        List<Connection> open;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            open = new ArrayList<>(connections);
+            notifyAll();
+        }
+        serverSocket.close();
+        for (Connection c : open) c.socket.close();
+        file.close();
+    }
+
+    /**
+     * Give a worker the next lease, waiting if every chunk that is not done
+     * is leased to someone else.
+     * @return The lease, or null if the search is finished or closed
+     */
+    private synchronized Lease nextLease(Connection owner) throws InterruptedException {
+        while (!closed) {
+            long time = System.currentTimeMillis();
+            long nextExpiry = time + leaseTimeout;
+            for (Lease lease : leases) {
+                if (lease.expiry <= time) {
+                    lease.owner = owner;
+                    lease.expiry = time + leaseTimeout;
+                    reassignedLeases++;
+                    return lease;
+                }
+                nextExpiry = Math.min(nextExpiry, lease.expiry);
+            }
+            while (nextChunk < SeedSearchFile.NUM_CHUNKS && file.isChunkDone(nextChunk)) nextChunk++;
+            if (nextChunk < SeedSearchFile.NUM_CHUNKS) {
+                int end = nextChunk + 1;
+                while (end < SeedSearchFile.NUM_CHUNKS && end - nextChunk < chunksPerLease && !file.isChunkDone(end)) end++;
+                Lease lease = new Lease(nextChunk, end, time + leaseTimeout, owner);
+                leases.add(lease);
+                nextChunk = end;
+                return lease;
+            }
+            if (leases.isEmpty()) return null;
+            wait(Math.max(nextExpiry - time, 1));
+        }
+        return null;
+    }
+
+    /**
+     * Store the results of a chunk if it is leased to sender, and move the
+     * lease past every chunk that is done. Results for chunks that are done,
+     * or leased to another worker, are ignored.
+     */
+    private void addResult(Connection sender, int chunk, long[] bits) {
+        synchronized (this) {
+            for (int i = 0; i < leases.size(); i++) {
+                Lease lease = leases.get(i);
+                if (chunk < lease.next || chunk >= lease.end) continue;
+                if (lease.owner != sender || file.isChunkDone(chunk)) return;
+                file.setChunk(chunk, bits);
+                while (lease.next < lease.end && file.isChunkDone(lease.next)) lease.next++;
+                lease.expiry = System.currentTimeMillis() + leaseTimeout;
+                if (lease.next == lease.end) {
+                    leases.remove(i);
+                    notifyAll();
+                }
+                break;
+            }
+        }
+        long time = System.currentTimeMillis();
+        long last = lastCheckpoint.get();
+        if (time - last >= CHECKPOINT_INTERVAL && lastCheckpoint.compareAndSet(last, time)) {
+            try {
+                file.checkpoint();
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Renew the leases of a worker that is still connected.
+     */
+    private synchronized void renewLeases(Connection owner) {
+        long expiry = System.currentTimeMillis() + leaseTimeout;
+        for (Lease lease : leases) {
+            if (lease.owner == owner) lease.expiry = expiry;
+        }
+    }
+
+    /**
+     * Make the leases of a worker that disconnected available right away.
+     */
+    private synchronized void disconnect(Connection connection) {
+        connections.remove(connection);
+        for (Lease lease : leases) {
+            if (lease.owner == connection) {
+                lease.owner = null;
+                lease.expiry = 0;
+            }
+        }
+        notifyAll();
+    }
+
+    private class Connection implements Runnable {
+        private final Socket socket;
+
+        @Override
+        public void run() {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+                if (in.readByte() != HELLO) throw new IOException("Expected HELLO");
+                if (in.readLong() != fingerprint) {
+                    out.writeByte(ERROR);
+                    out.writeUTF("The worker has a different level or solution");
+                    out.flush();
+                    return;
+                }
+                out.writeByte(HELLO);
+                out.writeInt((int) Math.max(leaseTimeout / 4, 1));
+                out.flush();
+                long[] bits = new long[WORDS_PER_CHUNK];
+                while (!closed) {
+                    byte message = in.readByte();
+                    if (message == LEASE) {
+                        Lease lease = nextLease(this);
+                        if (lease == null) {
+                            out.writeByte(DONE);
+                            out.flush();
+                            return;
+                        }
+                        out.writeByte(LEASE);
+                        synchronized (SeedSearchCoordinator.this) {
+                            out.writeInt(lease.next);
+                            out.writeInt(lease.end);
+                        }
+                        out.flush();
+                    }
+                    else if (message == RESULT) {
+                        int chunk = in.readInt();
+                        for (int i = 0; i < WORDS_PER_CHUNK; i++) bits[i] = in.readLong();
+                        if (chunk < 0 || chunk >= SeedSearchFile.NUM_CHUNKS) throw new IOException("Invalid chunk: " + chunk);
+                        addResult(this, chunk, bits);
+                    }
+                    else if (message == HEARTBEAT) renewLeases(this);
+                    else throw new IOException("Unknown message: " + message);
+                }
+            }
+            catch (EOFException | SocketException e) {
+                // The worker disconnected, or the coordinator was closed
+            }
+            catch (IOException e) {
+                if (!closed) e.printStackTrace();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                disconnect(this);
+                try {
+                    socket.close();
+                }
+                catch (IOException ignored) {}
+            }
+        }
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+    }
+
+    /**
+     * Read the solution of a level from a .json file saved by SuperCC, or
+     * from a .tws file.
+     * @param dat The levelset
+     * @param levelNumber The level number
+     * @param solutionFile The .json or .tws file
+     * @return The solution
+     */
+    static Solution readSolution(DatParser dat, int levelNumber, File solutionFile) throws IOException {
+        if (solutionFile.getName().toLowerCase().endsWith(".tws")) {
+            return new TWSReader(solutionFile).readSolution(dat.parseLevel(levelNumber, 0, Step.EVEN));
+        }
+        return Solution.fromJSON(new String(Files.readAllBytes(solutionFile.toPath()), StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * @param file The results of the search so far
+     * @param fingerprint The fingerprint of the search, see
+     *                    SeedSearchFile.fingerprint(). Workers with a
+     *                    different one are turned away.
+     * @param port The port to listen on, or 0 for any free port
+     * @param chunksPerLease The maximum number of chunks in a lease
+     * @param leaseTimeout The ms after which a lease is taken from a worker
+     *                     that has sent neither a result nor a heartbeat
+     */
+    public SeedSearchCoordinator(SeedSearchFile file, long fingerprint, int port, int chunksPerLease,
+                                 long leaseTimeout) throws IOException {
+        this.file = file;
+        this.fingerprint = fingerprint;
+        this.chunksPerLease = chunksPerLease;
+        this.leaseTimeout = leaseTimeout;
+        serverSocket = new ServerSocket(port);
+    }
+
+    public SeedSearchCoordinator(SeedSearchFile file, long fingerprint, int port) throws IOException {
+        this(file, fingerprint, port, DEFAULT_CHUNKS_PER_LEASE, DEFAULT_LEASE_TIMEOUT);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("Usage: java tools.SeedSearchCoordinator levelset.dat level solution.json|solution.tws results.seeds [port] [lease timeout in s]");
+            System.exit(2);
+        }
+        DatParser dat = new DatParser(new File(args[0]));
+        int levelNumber = Integer.parseInt(args[1]);
+        Solution solution = readSolution(dat, levelNumber, new File(args[2]));
+        byte[] startingState = dat.parseLevel(levelNumber, 0, solution.step).save();
+        long fingerprint = SeedSearchFile.fingerprint(startingState, solution);
+        int port = args.length >= 5 ? Integer.parseInt(args[4]) : DEFAULT_PORT;
+        long leaseTimeout = args.length >= 6 ? Long.parseLong(args[5]) * 1000 : DEFAULT_LEASE_TIMEOUT;
+
+        SeedSearchCoordinator coordinator = new SeedSearchCoordinator(new SeedSearchFile(new File(args[3]), fingerprint), fingerprint,
+                                                                      port, DEFAULT_CHUNKS_PER_LEASE, leaseTimeout);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                coordinator.close();
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }));
+        coordinator.start();
+        System.out.printf("Listening on port %d, fingerprint %016x%n", coordinator.getPort(), fingerprint);
+        boolean finished = false;
+        while (!finished) {
+            finished = coordinator.awaitFinished(10000);
+            System.out.printf("%d/%d seeds searched, %d successes, %d workers%n", coordinator.getSearchedSeeds(),
+                              SeedSearchFile.NUM_SEEDS, coordinator.getSuccesses(), coordinator.getNumWorkers());
+        }
+        long example = coordinator.file.nextSuccess(0);
+        System.out.println(example < 0 ? "No successful seeds" : "Example seed: " + example);
+        coordinator.close();
+    }
+
+}
@@ -0,0 +1,484 @@
+package tools;
+
+import emulator.Solution;
+import game.Level;
+import game.RNG;
+import util.TranspositionTable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks a solution against every rng seed using all available cores.
+ * <p>
+ * Each worker thread has its own level, which is reset to the starting
+ * savestate for every seed. Workers take seeds from a shared queue in
+ * chunks of CHUNK_SIZE, so stopping and restarting the search never skips
+ * or repeats a seed.
+ * </p>
+ * <p>
+ * Nothing depends on the seed until the rng is first used, so before the
+ * search starts, the solution is played once up to the first move that
+ * advances the rng. Every seed then starts from a savestate of that point.
+ * If the solution never uses the rng, every seed has the same result and
+ * the whole search is a single run.
+ * </p>
+ * <p>
+ * A SeedFilter can be set to only play the seeds that give the rng outcomes
+ * the solution needs. The other seeds are counted as failed attempts.
+ * </p>
+ * <p>
+ * Different seeds often end up in the same state apart from the rng value,
+ * for example once the random monsters are dead. Every
+ * convergenceInterval half-ticks, the state is hashed without the rng. When
+ * a seed finishes and the rng was not used after one of these checkpoints,
+ * the result only depends on the state there, so it is stored in a cache.
+ * A later seed that reaches a cached state stops and takes the result from
+ * the cache.
+ * </p>
+ * <p>
+ * If a SeedSearchFile is set, the result of every seed is stored in it and
+ * chunks that it already has are skipped, so a search can be resumed after
+ * the program is closed. It is checkpointed every CHECKPOINT_INTERVAL and
+ * when the workers stop.
+ * </p>
+ */
+public class SeedSearchEngine {
+
+    public interface LevelFactory {
+        Level makeLevel() throws Exception;
+    }
+
+    private static final int CHUNK_SIZE = SeedSearchFile.CHUNK_SIZE;
+    private static final long CHECKPOINT_INTERVAL = 30000;          // ms
+    private static final long NUM_SEEDS = (long) RNG.LAST_SEED + 1;
+    public static final int MAX_STORED_SEEDS = 10000;
+    public static final int DEFAULT_CONVERGENCE_INTERVAL = 10;
+    private static final long CONVERGENCE_CACHE_BYTES = 16 << 20;    // For each of the two tables
+
+    private final LevelFactory levelFactory;
+    private final byte[] startingState;
+    private final Solution solution;
+    private final int numThreads;
+
+    private final AtomicLong nextSeed = new AtomicLong(0);
+    private final AtomicLong attempts = new AtomicLong(0);
+    private final AtomicLong successes = new AtomicLong(0);
+    private final List<Integer> successfulSeeds = new ArrayList<>();
+    private volatile int lastSuccess = -1;
+
+    private volatile boolean killThreadFlag = false;
+    private Thread[] threads = new Thread[0];
+
+    // The state before the first move that uses the rng, and the index of that move
+    private boolean prefixFound = false;
+    private byte[] prefixState;
+    private int prefixMove = 0;
+    private boolean usesRng = true;
+    private boolean singleResult;                   // The result for every seed if the rng is not used
+    private volatile SeedFilter filter;
+
+    // Checkpoint hashes after which the rng was not used, by result
+    private int convergenceInterval = DEFAULT_CONVERGENCE_INTERVAL;
+    private TranspositionTable successStates, failureStates;
+    private final AtomicLong convergedSeeds = new AtomicLong(0);
+    private final AtomicLong errors = new AtomicLong(0);
+
+    private SeedSearchFile file;
+    private final AtomicLong lastCheckpoint = new AtomicLong(System.currentTimeMillis());
+
+    public long getAttempts() {
+        return attempts.get();
+    }
+    public long getSuccesses() {
+        return successes.get();
+    }
+    public int getLastSuccess() {
+        return lastSuccess;
+    }
+    public int getNumThreads() {
+        return numThreads;
+    }
+    /**
+     * @return The number of seeds whose result was taken from the
+     * convergence cache instead of playing them to the end
+     */
+    public long getConvergedSeeds() {
+        return convergedSeeds.get();
+    }
+    /**
+     * @return The number of seeds that threw an exception while they were
+     * played. They are counted as failed, and the first exception is printed.
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * @return A copy of the successful seeds found so far. At most
+     * MAX_STORED_SEEDS seeds are kept, in the order they were found.
+     */
+    public List<Integer> getSuccessfulSeeds() {
+        synchronized (successfulSeeds) {
+            return new ArrayList<>(successfulSeeds);
+        }
+    }
+
+    public boolean isFinished() {
+        return nextSeed.get() >= NUM_SEEDS && !isRunning();
+    }
+
+    public synchronized boolean isRunning() {
+        for (Thread t : threads) if (t.isAlive()) return true;
+        return false;
+    }
+
+    /**
+     * Start or resume the search. This does nothing if the search is already
+     * running.
+     */
+    public synchronized void start() {
+        if (isRunning()) return;
+        prepare();
+        if (!usesRng && file == null) {
+            finishSeedIndependent();
+            return;
+        }
+        killThreadFlag = false;
+        threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            threads[i] = new Thread(new Worker(), "Seed search " + i);
+            threads[i].setPriority(Thread.MIN_PRIORITY);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    /**
+     * Find the rng prefix and create the convergence cache, the first time
+     * this is called.
+     */
+    private synchronized void prepare() {
+        if (!prefixFound) {
+            prefixFound = true;
+            try {
+                findRngPrefix();
+            }
+            catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        if (convergenceInterval > 0 && successStates == null) {
+            successStates = new TranspositionTable(CONVERGENCE_CACHE_BYTES);
+            failureStates = new TranspositionTable(CONVERGENCE_CACHE_BYTES);
+        }
+    }
+
+    /**
+     * Stop the search. Workers finish the chunk they are working on before
+     * they stop, so this method returns before all threads are done.
+     */
+    public void stop() {
+        killThreadFlag = true;
+    }
+
+    /**
+     * Stop the search, wait for the workers to finish and close the results
+     * file if there is one.
+     */
+    public void close() throws IOException, InterruptedException {
+        stop();
+        Thread[] threads;
+        synchronized (this) {
+            threads = this.threads;
+        }
+        for (Thread t : threads) t.join();
+        if (file != null) file.close();
+    }
+
+    /**
+     * Store the results in a file, and skip the seeds that it already has
+     * results for. This can only be called before the search is started,
+     * and not if a filter is set, see setFilter. The numbers of attempts
+     * and successes, and the successful seeds, are taken from the file.
+     * @param file The results of this search so far
+     */
+    public synchronized void setFile(SeedSearchFile file) {
+        if (isRunning()) throw new IllegalStateException("The search is running");
+        if (filter != null) throw new IllegalStateException("A results file cannot be used with a filter");
+        this.file = file;
+        attempts.set(file.getSearchedSeeds());
+        successes.set(file.countSuccesses(0, NUM_SEEDS));
+        synchronized (successfulSeeds) {
+            successfulSeeds.clear();
+            for (long seed = file.nextSuccess(0); seed >= 0 && successfulSeeds.size() < MAX_STORED_SEEDS;
+                 seed = file.nextSuccess(seed + 1)) {
+                successfulSeeds.add((int) seed);
+                lastSuccess = (int) seed;
+            }
+        }
+    }
+
+    /**
+     * Write a checkpoint of the results file, if there is one and the last
+     * checkpoint was long enough ago.
+     * @param now true to checkpoint whenever there is a file
+     */
+    private void checkpoint(boolean now) {
+        if (file == null) return;
+        long time = System.currentTimeMillis();
+        long last = lastCheckpoint.get();
+        if (!now && (time - last < CHECKPOINT_INTERVAL || !lastCheckpoint.compareAndSet(last, time))) return;
+        try {
+            file.checkpoint();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Check a single seed.
+     * @param level A level belonging to the calling thread
+     * @param seed The rng seed
+     * @return true if the solution completes the level with this seed
+     */
+    public boolean verifySeed(Level level, int seed) {
+        return verifySeed(level, seed, new Checkpoints());
+    }
+
+    private boolean verifySeed(Level level, int seed, Checkpoints checkpoints) {
+        level.load(prefixState);
+        level.cheats.setRng(seed);
+        if (successStates == null) {
+            solution.loadMoves(level, prefixMove);
+            return level.isCompleted();
+        }
+
+        checkpoints.clear();
+        int nextCheckpoint = level.getTickNumber() + convergenceInterval;
+        for (int move = prefixMove; move < solution.halfMoves.length && !level.getChip().isDead(); ) {
+            move = solution.loadMove(level, move);
+            if (level.getTickNumber() < nextCheckpoint) continue;
+            nextCheckpoint = level.getTickNumber() + convergenceInterval;
+            long hash = level.getStateHash(false) ^ move * 0x9e3779b97f4a7c15L;
+            if (successStates.contains(hash) || failureStates.contains(hash)) {
+                convergedSeeds.incrementAndGet();
+                return successStates.contains(hash);
+            }
+            checkpoints.add(hash, level.getRngCalls());
+        }
+        boolean success = level.isCompleted();
+        TranspositionTable cache = success ? successStates : failureStates;
+        long rngCalls = level.getRngCalls();
+        for (int i = checkpoints.size - 1; i >= 0 && checkpoints.rngCalls[i] == rngCalls; i--) {
+            cache.add(checkpoints.hashes[i]);
+        }
+        return success;
+    }
+
+    /**
+     * Set how often the state is hashed to look for seeds that have converged.
+     * This can only be changed before the search is started.
+     * @param halfTicks The number of half-ticks between checkpoints, or 0 to
+     *                  not look for converging seeds
+     */
+    public void setConvergenceInterval(int halfTicks) {
+        convergenceInterval = halfTicks;
+    }
+
+    /**
+     * The checkpoints a seed has passed, reused between seeds.
+     */
+    private static class Checkpoints {
+        private long[] hashes = new long[16];
+        private long[] rngCalls = new long[16];
+        private int size;
+
+        void add(long hash, long calls) {
+            if (size == hashes.length) {
+                hashes = Arrays.copyOf(hashes, 2 * size);
+                rngCalls = Arrays.copyOf(rngCalls, 2 * size);
+            }
+            hashes[size] = hash;
+            rngCalls[size++] = calls;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+
+    /**
+     * Only play the seeds that pass a filter from now on. Seeds that do not
+     * pass are counted as failed attempts. A filter cannot be used with a
+     * results file, which would store those seeds as failures for good.
+     * @param filter The filter, or null to play every seed
+     */
+    public synchronized void setFilter(SeedFilter filter) {
+        if (filter != null && file != null) throw new IllegalStateException("A filter cannot be used with a results file");
+        this.filter = filter;
+    }
+
+    /**
+     * @return The number of half-moves of the solution that are played only
+     * once for all seeds. This is 0 until the search has been started.
+     */
+    public int getPrefixLength() {
+        return prefixMove;
+    }
+
+    /**
+     * Play the solution up to the first move that advances the rng, and keep
+     * a savestate from just before it. If the rng is never used, usesRng is
+     * set to false instead.
+     */
+    private void findRngPrefix() throws Exception {
+        Level level = levelFactory.makeLevel();
+        level.load(startingState);
+        level.cheats.setRng(0);
+        for (int move = 0; move < solution.halfMoves.length && !level.getChip().isDead(); ) {
+            byte[] state = level.save();
+            int nextMove = solution.loadMove(level, move);
+            if (level.getRngCalls() != 0) {
+                prefixState = state;
+                prefixMove = move;
+                return;
+            }
+            move = nextMove;
+        }
+        usesRng = false;
+        singleResult = level.isCompleted();
+    }
+
+    /**
+     * Count every remaining seed with the result of the single run.
+     */
+    private void finishSeedIndependent() {
+        long first = nextSeed.getAndSet(NUM_SEEDS);
+        if (first >= NUM_SEEDS) return;
+        SeedFilter filter = this.filter;
+        if (singleResult && filter == null) {
+            synchronized (successfulSeeds) {
+                for (long seed = first; seed < NUM_SEEDS && successfulSeeds.size() < MAX_STORED_SEEDS; seed++) {
+                    successfulSeeds.add((int) seed);
+                }
+            }
+            successes.addAndGet(NUM_SEEDS - first);
+            lastSuccess = RNG.LAST_SEED;
+        }
+        else if (singleResult) {
+            filter.forEach(seed -> {
+                if (seed >= first) addSuccess(seed);
+            });
+        }
+        attempts.addAndGet(NUM_SEEDS - first);
+    }
+
+    /**
+     * Check every seed of a chunk on the calling thread, without using the
+     * worker threads or the results file. This is for searches where the
+     * chunks are handed out by someone else, such as a SeedSearchCoordinator.
+     * The seeds are counted in the attempts and successes of this engine.
+     * Seeds rejected by a filter are reported as failures, so the results of
+     * a filtered search must not be stored with those of an unfiltered one.
+     * @param level A level belonging to the calling thread
+     * @param chunk The chunk, which holds the seeds from chunk * CHUNK_SIZE
+     * @param bits The results, as CHUNK_SIZE / 64 words in the format of
+     *             SeedSearchFile.setChunk
+     */
+    public void searchChunk(Level level, int chunk, long[] bits) {
+        prepare();
+        searchChunk(level, chunk, bits, new Checkpoints());
+    }
+
+    private void searchChunk(Level level, int chunk, long[] bits, Checkpoints checkpoints) {
+        long chunkStart = (long) chunk * CHUNK_SIZE;
+        long chunkEnd = chunkStart + CHUNK_SIZE;
+        SeedFilter filter = this.filter;
+        Arrays.fill(bits, 0);
+        for (long seed = chunkStart; seed < chunkEnd; seed++) {
+            if (filter != null && !filter.matches((int) seed)) continue;
+            boolean success;
+            try {
+                success = usesRng ? verifySeed(level, (int) seed, checkpoints) : singleResult;
+            }
+            catch (Exception e) {
+                success = false;
+                if (errors.getAndIncrement() == 0) {
+                    System.err.println("Seed " + seed + " threw an exception, it is counted as failed");
+                    e.printStackTrace();
+                }
+            }
+            if (success) {
+                addSuccess((int) seed);
+                bits[(int) (seed - chunkStart) >>> 6] |= 1L << seed;
+            }
+        }
+        attempts.addAndGet(chunkEnd - chunkStart);
+    }
+
+    private void addSuccess(int seed) {
+        successes.incrementAndGet();
+        lastSuccess = seed;
+        synchronized (successfulSeeds) {
+            if (successfulSeeds.size() < MAX_STORED_SEEDS) successfulSeeds.add(seed);
+        }
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            Level level;
+            try {
+                level = levelFactory.makeLevel();
+            }
+            catch (Exception e) {
+                e.printStackTrace();
+                return;
+            }
+            Checkpoints checkpoints = new Checkpoints();
+            long[] bits = new long[CHUNK_SIZE / 64];
+            try {
+                while (!killThreadFlag) {
+                    long chunkStart = nextSeed.getAndAdd(CHUNK_SIZE);
+                    if (chunkStart >= NUM_SEEDS) {
+                        nextSeed.set(NUM_SEEDS);
+                        return;
+                    }
+                    int chunk = (int) (chunkStart / CHUNK_SIZE);
+                    if (file != null && file.isChunkDone(chunk)) continue;
+                    searchChunk(level, chunk, bits, checkpoints);
+                    if (file != null) file.setChunk(chunk, bits);
+                    checkpoint(false);
+                }
+            }
+            finally {
+                checkpoint(true);
+            }
+        }
+    }
+
+    /**
+     * @param levelFactory Creates the level of each worker thread. The level
+     *                     will be loaded from startingState before it is used.
+     * @param startingState The savestate the level is reset to for each seed
+     * @param solution The solution to check
+     * @param numThreads The number of worker threads
+     */
+    public SeedSearchEngine(LevelFactory levelFactory, byte[] startingState, Solution solution, int numThreads) {
+        this.levelFactory = levelFactory;
+        this.startingState = startingState;
+        this.solution = solution;
+        this.numThreads = numThreads;
+        prefixState = startingState;
+    }
+
+    public SeedSearchEngine(LevelFactory levelFactory, byte[] startingState, Solution solution) {
+        this(levelFactory, startingState, solution, Runtime.getRuntime().availableProcessors());
+    }
+
+}
@@ -0,0 +1,266 @@
+package tools;
+
+import emulator.Solution;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The results of a seed search on disk, so that a search can be stopped,
+ * or crash, and be resumed later without losing any work.
+ * <p>
+ * The results are a bitmap with one bit for each of the 2^31 seeds, 256 MB
+ * in total, written through a memory mapping. The bitmap is created as a
+ * sparse file, which NTFS only does when asked to, and words are only
+ * written when they change, so a search with few successes only takes up
+ * the pages that have successes in them. Closing a file in which no chunk
+ * is done deletes it, so searches that were never run leave nothing behind.
+ * </p>
+ * <p>
+ * Seeds are searched in chunks of CHUNK_SIZE, a multiple of 64 so that
+ * chunks never share a word of the bitmap. A second file, the bitmap file
+ * name followed by .progress, lists the chunks that are done. It is only
+ * written by checkpoint(), after the bitmap has been flushed, so every
+ * chunk it lists is on disk. Chunks that were in progress are searched again.
+ * </p>
+ */
+public class SeedSearchFile implements Closeable {
+
+    public static final int CHUNK_SIZE = 4096;
+    static final long NUM_SEEDS = 1L << 31;
+    static final int NUM_CHUNKS = (int) (NUM_SEEDS / CHUNK_SIZE);
+    private static final int WORDS_PER_CHUNK = CHUNK_SIZE / 64;
+    private static final int MAGIC = 0x53454544, VERSION = 1;   // "SEED"
+
+    private final File bitmapFile, progressFile;
+    private final long fingerprint;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final LongBuffer bitmap;
+    private final long[] doneChunks = new long[NUM_CHUNKS / 64];
+    private final Object checkpointLock = new Object();
+    private final int[] chunkSuccesses = new int[NUM_CHUNKS];
+    private int numDoneChunks;
+
+    /**
+     * A 64 bit hash identifying a search, which is stored in the progress
+     * file so that the results of a different search are never resumed.
+     * @param startingState The savestate the search starts from
+     * @param solution The solution being searched
+     * @return The fingerprint of the search
+     */
+    public static long fingerprint(byte[] startingState, Solution solution) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : startingState) hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+        for (byte b : solution.halfMoves) hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+        return (hash ^ solution.step.ordinal()) * 0x100000001b3L;
+    }
+
+    public File getFile() {
+        return bitmapFile;
+    }
+
+    public synchronized boolean isChunkDone(int chunk) {
+        return (doneChunks[chunk >>> 6] & 1L << chunk) != 0;
+    }
+
+    /**
+     * @return The number of seeds in chunks that are done
+     */
+    public synchronized long getSearchedSeeds() {
+        return (long) numDoneChunks * CHUNK_SIZE;
+    }
+
+    /**
+     * Store the results of a chunk and mark it as done. Different threads
+     * can store different chunks at the same time.
+     * @param chunk The chunk, which holds the seeds from chunk * CHUNK_SIZE
+     * @param bits The results of the chunk, as CHUNK_SIZE / 64 words where
+     *             bit i of word j is set if seed chunk * CHUNK_SIZE + 64 * j + i
+     *             succeeded
+     */
+    public void setChunk(int chunk, long[] bits) {
+        int successes = 0;
+        int first = chunk * WORDS_PER_CHUNK;
+        for (int i = 0; i < WORDS_PER_CHUNK; i++) {
+            if (bitmap.get(first + i) != bits[i]) bitmap.put(first + i, bits[i]);
+            successes += Long.bitCount(bits[i]);
+        }
+        synchronized (this) {
+            chunkSuccesses[chunk] = successes;
+            if (!isChunkDone(chunk)) {
+                doneChunks[chunk >>> 6] |= 1L << chunk;
+                numDoneChunks++;
+            }
+        }
+    }
+
+    /**
+     * @return true if the seed is in a chunk that is done, and succeeded
+     */
+    public boolean isSuccess(int seed) {
+        return isChunkDone(seed / CHUNK_SIZE) && (bitmap.get(seed >>> 6) & 1L << seed) != 0;
+    }
+
+    /**
+     * Count the successful seeds in a range. Seeds in chunks that are not
+     * done are never counted.
+     * @param from The first seed
+     * @param to The seed after the last one, up to 2^31
+     * @return The number of successful seeds in [from, to)
+     */
+    public long countSuccesses(long from, long to) {
+        long count = 0;
+        while (from < to && from % CHUNK_SIZE != 0) {
+            if (isSuccess((int) from++)) count++;
+        }
+        synchronized (this) {
+            while (to - from >= CHUNK_SIZE) {
+                count += chunkSuccesses[(int) (from / CHUNK_SIZE)];
+                from += CHUNK_SIZE;
+            }
+        }
+        while (from < to) {
+            if (isSuccess((int) from++)) count++;
+        }
+        return count;
+    }
+
+    /**
+     * @param from The first seed to look at
+     * @return The first successful seed from a seed onwards, or -1 if there
+     * is none
+     */
+    public synchronized long nextSuccess(long from) {
+        while (from < NUM_SEEDS) {
+            int chunk = (int) (from / CHUNK_SIZE);
+            if (chunkSuccesses[chunk] == 0) {
+                from = (long) (chunk + 1) * CHUNK_SIZE;
+                continue;
+            }
+            int word = (int) (from >>> 6);
+            long bits = bitmap.get(word) & -1L << from;
+            if (bits != 0) return ((long) word << 6) + Long.numberOfTrailingZeros(bits);
+            from = (long) (word + 1) << 6;
+        }
+        return -1;
+    }
+
+    /**
+     * Flush the bitmap and write the progress file. Chunks stored while this
+     * runs are saved by the next checkpoint. Checkpoints from different
+     * threads are written one at a time.
+     */
+    public void checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            long[] done;
+            synchronized (this) {
+                done = doneChunks.clone();
+            }
+            buffer.force();
+            File temp = new File(progressFile.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(fingerprint);
+                out.writeInt(CHUNK_SIZE);
+                for (long l : done) out.writeLong(l);
+            }
+            Files.move(temp.toPath(), progressFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @param bitmapFile A bitmap file
+     * @return true if there are results of a search in the file, which may
+     * belong to a different search
+     */
+    public static boolean exists(File bitmapFile) {
+        return bitmapFile.exists() && new File(bitmapFile.getPath() + ".progress").exists();
+    }
+
+    /**
+     * Write a final checkpoint and close the file. If no chunk is done, the
+     * files are deleted instead.
+     */
+    @Override
+    public void close() throws IOException {
+        if (getSearchedSeeds() == 0) {
+            channel.close();
+            Files.deleteIfExists(progressFile.toPath());
+            try {
+                Files.deleteIfExists(bitmapFile.toPath());
+            }
+            catch (IOException e) {
+                // Windows does not delete files that are still mapped. Without a progress file it is replaced anyway.
+                bitmapFile.deleteOnExit();
+            }
+            return;
+        }
+        try {
+            checkpoint();
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return true if the progress file belongs to this search and was read
+     */
+    private boolean readProgress() throws IOException {
+        if (!progressFile.exists() || bitmapFile.length() != NUM_SEEDS / 8) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(progressFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return false;
+            if (in.readLong() != fingerprint || in.readInt() != CHUNK_SIZE) return false;
+            for (int i = 0; i < doneChunks.length; i++) doneChunks[i] = in.readLong();
+        }
+        catch (EOFException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Open the results of a search, or start new ones if the files do not
+     * exist or belong to a different search.
+     * @param bitmapFile The bitmap file
+     * @param fingerprint The fingerprint of the search, see fingerprint()
+     */
+    public SeedSearchFile(File bitmapFile, long fingerprint) throws IOException {
+        this.bitmapFile = bitmapFile;
+        this.progressFile = new File(bitmapFile.getPath() + ".progress");
+        this.fingerprint = fingerprint;
+        boolean resume = readProgress();
+        if (resume) channel = FileChannel.open(bitmapFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        else {
+            Arrays.fill(doneChunks, 0);
+            Files.deleteIfExists(progressFile.toPath());
+            Files.deleteIfExists(bitmapFile.toPath());
+            // SPARSE is only a hint, and only for files created with CREATE_NEW
+            channel = FileChannel.open(bitmapFile.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.SPARSE,
+                                       StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, NUM_SEEDS / 8);
+        bitmap = buffer.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+
+        // Only chunks that are done can have results, anything else is from a chunk that was in progress
+        for (int chunk = 0; chunk < NUM_CHUNKS; chunk++) {
+            if (!isChunkDone(chunk)) continue;
+            numDoneChunks++;
+            int successes = 0;
+            for (int i = chunk * WORDS_PER_CHUNK; i < (chunk + 1) * WORDS_PER_CHUNK; i++) {
+                successes += Long.bitCount(bitmap.get(i));
+            }
+            chunkSuccesses[chunk] = successes;
+        }
+    }
+
+}
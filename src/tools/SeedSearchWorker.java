@@ -0,0 +1,190 @@
+package tools;
+
+import emulator.Solution;
+import game.Level;
+import io.DatParser;
+
+import java.io.*;
+import java.net.Socket;
+
+import static tools.SeedSearchCoordinator.*;
+
+/**
+ * Searches the seeds leased by a SeedSearchCoordinator, without a GUI.
+ * <p>
+ * Each thread has its own connection to the coordinator and its own level,
+ * and asks for a lease whenever it has finished the last one. Each connection
+ * also sends a heartbeat as often as the coordinator asks, from a thread of
+ * its own, so the leases are kept however long a chunk takes. The seeds are
+ * checked by a SeedSearchEngine, so the rng prefix and the convergence cache
+ * are shared by all threads of the process. A worker can be stopped at any
+ * time; the coordinator leases the chunks it had not sent to someone else.
+ * </p>
+ * <p>
+ * Usage: java tools.SeedSearchWorker host port levelset.dat level solution.json|solution.tws [threads]
+ * </p>
+ */
+public class SeedSearchWorker {
+
+    private final SeedSearchEngine.LevelFactory levelFactory;
+    private final SeedSearchEngine engine;
+    private final long fingerprint;
+    private final String host;
+    private final int port;
+    private final int numThreads;
+
+    private volatile boolean killThreadFlag = false;
+
+    public long getAttempts() {
+        return engine.getAttempts();
+    }
+    public long getSuccesses() {
+        return engine.getSuccesses();
+    }
+    public long getErrors() {
+        return engine.getErrors();
+    }
+
+    /**
+     * Stop after the chunk each thread is working on.
+     */
+    public void stop() {
+        killThreadFlag = true;
+    }
+
+    /**
+     * Search leases on all threads until the coordinator has no more, or
+     * the worker is stopped.
+     * @return true if every thread finished without an error
+     */
+    public boolean run() throws InterruptedException {
+        Thread[] threads = new Thread[numThreads];
+        boolean[] failed = new boolean[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            final int thread = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    searchLeases();
+                }
+                catch (Exception e) {
+                    failed[thread] = true;
+                    e.printStackTrace();
+                }
+            }, "Seed search worker " + i);
+            threads[i].setPriority(Thread.MIN_PRIORITY);
+            threads[i].start();
+        }
+        boolean success = true;
+        for (int i = 0; i < numThreads; i++) {
+            threads[i].join();
+            success &= !failed[i];
+        }
+        return success;
+    }
+
+    private void searchLeases() throws Exception {
+        Level level = levelFactory.makeLevel();
+        long[] bits = new long[SeedSearchFile.CHUNK_SIZE / 64];
+        try (Socket socket = new Socket(host, port);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            socket.setKeepAlive(true);
+            socket.setTcpNoDelay(true);
+            out.writeByte(HELLO);
+            out.writeLong(fingerprint);
+            out.flush();
+            byte answer = in.readByte();
+            if (answer == ERROR) throw new IOException(in.readUTF());
+            if (answer != HELLO) throw new IOException("Unknown message: " + answer);
+            Thread heartbeat = startHeartbeat(out, in.readInt());
+            try {
+                while (!killThreadFlag) {
+                    synchronized (out) {
+                        out.writeByte(LEASE);
+                        out.flush();
+                    }
+                    answer = in.readByte();
+                    if (answer == DONE) return;
+                    if (answer != LEASE) throw new IOException("Unknown message: " + answer);
+                    int first = in.readInt();
+                    int end = in.readInt();
+                    for (int chunk = first; chunk < end && !killThreadFlag; chunk++) {
+                        engine.searchChunk(level, chunk, bits);
+                        synchronized (out) {
+                            out.writeByte(RESULT);
+                            out.writeInt(chunk);
+                            for (long word : bits) out.writeLong(word);
+                            out.flush();
+                        }
+                    }
+                }
+            }
+            finally {
+                heartbeat.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Send a heartbeat every interval ms until the thread is interrupted or
+     * the connection is closed.
+     */
+    private static Thread startHeartbeat(DataOutputStream out, int interval) {
+        Thread heartbeat = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(interval);
+                    synchronized (out) {
+                        out.writeByte(HEARTBEAT);
+                        out.flush();
+                    }
+                }
+            }
+            catch (InterruptedException | IOException e) {
+                // The worker stopped, or the connection was closed
+            }
+        }, Thread.currentThread().getName() + " heartbeat");
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+        return heartbeat;
+    }
+
+    /**
+     * @param levelFactory Creates the level of each thread
+     * @param startingState The savestate the level is reset to for each seed
+     * @param solution The solution to check
+     * @param host The host of the coordinator
+     * @param port The port of the coordinator
+     * @param numThreads The number of threads, each with its own connection
+     */
+    public SeedSearchWorker(SeedSearchEngine.LevelFactory levelFactory, byte[] startingState, Solution solution,
+                            String host, int port, int numThreads) {
+        this.levelFactory = levelFactory;
+        this.engine = new SeedSearchEngine(levelFactory, startingState, solution, numThreads);
+        this.fingerprint = SeedSearchFile.fingerprint(startingState, solution);
+        this.host = host;
+        this.port = port;
+        this.numThreads = numThreads;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 5) {
+            System.err.println("Usage: java tools.SeedSearchWorker host port levelset.dat level solution.json|solution.tws [threads]");
+            System.exit(2);
+        }
+        DatParser dat = new DatParser(new File(args[2]));
+        int levelNumber = Integer.parseInt(args[3]);
+        Solution solution = readSolution(dat, levelNumber, new File(args[4]));
+        byte[] startingState = dat.parseLevel(levelNumber, 0, solution.step).save();
+        int numThreads = args.length >= 6 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+
+        SeedSearchWorker worker = new SeedSearchWorker(() -> dat.parseLevel(levelNumber, 0, solution.step), startingState,
+                                                       solution, args[0], Integer.parseInt(args[1]), numThreads);
+        long startTime = System.nanoTime();
+        boolean success = worker.run();
+        System.out.printf("%d seeds searched, %d successes, %d errors in %.2f s%n", worker.getAttempts(),
+                          worker.getSuccesses(), worker.getErrors(), (System.nanoTime() - startTime) / 1e9);
+        System.exit(success ? 0 : 1);
+    }
+
+}
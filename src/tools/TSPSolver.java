@@ -0,0 +1,490 @@
+package tools;
+
+import game.Creature;
+import game.Direction;
+import game.Layer;
+import game.Level;
+import game.Position;
+import game.Tile;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import static game.Tile.*;
+
+/**
+ * Suggests an order to collect the chips and keys of a level in, ending at
+ * the exit.
+ * <p>
+ * The distance between two targets is the number of moves on the shortest
+ * path between them, found by a breadth-first search over the tiles Chip
+ * can enter. This is a rough map of the level: ice, force floors and
+ * teleports are treated like floor, blocks and traps like walls, and water
+ * and fire like walls unless Chip already has the boots for them. Monsters
+ * are ignored.
+ * </p>
+ * <p>
+ * Doors and sockets are passable, but a path through a door only counts if
+ * a key of its colour has been collected before, and a path through a
+ * socket only counts once enough chips have been collected. Keys are not
+ * used up. The shortest path is found for each set of keys, so a longer
+ * path that avoids a door is used until its key has been collected. The
+ * order is then found by simulated annealing, with an
+ * independent run on each core.
+ * </p>
+ */
+public class TSPSolver {
+
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+    private static final int SOCKET_BIT = 1 << Tile.NUM_KEYS;
+    private static final int KEY_SETS = SOCKET_BIT << 1;            // Every combination of key and socket bits
+    private static final long PENALTY = 1 << 20;                   // Cost of a leg that cannot be walked
+    private static final Direction[] DIRECTIONS = Direction.values();
+    private static final int NEIGHBOURS = 8;                        // Number of close targets to try moves with
+
+    private final Level level;
+    private final Creature chip;
+    private final Layer layerBG, layerFG;
+    private final int start;
+    private final int startKeys;
+    private final int chipsLeft;
+    private final List<Target> targets = new ArrayList<>();         // Chips and keys Chip can get to
+    private final List<Target> unreachable = new ArrayList<>();     // Chips and keys Chip can never get to
+    private final List<Target> exits = new ArrayList<>();
+    private final int[] keyBits;
+    private final boolean[] isChip;
+    private final int[][] neighbours;
+    private final int[][][] distances;      // [from][to][keys], from 0 = start and i + 1 = targets[i], to i = targets[i]
+    private final int[][][] exitDistances;  // [from][exit][keys]
+
+    public static class Target {
+        public final Position position;
+        public final Tile tile;
+
+        Target(Position position, Tile tile) {
+            this.position = position;
+            this.tile = tile;
+        }
+
+        private int keyBit() {
+            switch (tile) {
+                case KEY_BLUE: return 1;
+                case KEY_RED: return 1 << 1;
+                case KEY_GREEN: return 1 << 2;
+                case KEY_YELLOW: return 1 << 3;
+                default: return 0;
+            }
+        }
+    }
+
+    public static class Plan {
+        /**
+         * The chips and keys in the order they should be collected, followed
+         * by the exit if the level has one that can be reached.
+         */
+        public final List<Target> order;
+        /**
+         * The number of moves between Chip and each target in order. Moves
+         * that cannot be made are UNREACHABLE.
+         */
+        public final int[] moves;
+        public final int totalMoves;
+        /**
+         * false if some target could not be reached in this order
+         */
+        public final boolean complete;
+
+        Plan(List<Target> order, int[] moves, int totalMoves, boolean complete) {
+            this.order = order;
+            this.moves = moves;
+            this.totalMoves = totalMoves;
+            this.complete = complete;
+        }
+    }
+
+    public List<Target> getTargets() {
+        return targets;
+    }
+
+    /**
+     * @return The chips and keys that are not in any plan because there is
+     * no path to them
+     */
+    public List<Target> getUnreachable() {
+        return unreachable;
+    }
+
+    /**
+     * Find an order for the targets.
+     * @param timeLimit The time in milliseconds each thread spends searching
+     * @param numThreads The number of independent searches to run
+     * @return The best order found by any thread
+     */
+    public Plan solve(long timeLimit, int numThreads) throws Exception {
+        int[] best = nearestNeighbour();
+        if (targets.size() >= 2) {
+            ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+            try {
+                List<Future<int[]>> futures = new ArrayList<>();
+                for (int i = 0; i < numThreads; i++) {
+                    futures.add(executor.submit(new Annealer(best, timeLimit, new Random(i))));
+                }
+                for (Future<int[]> future : futures) {
+                    int[] order = future.get();
+                    if (cost(order) < cost(best)) best = order;
+                }
+            }
+            finally {
+                executor.shutdownNow();
+            }
+        }
+        return makePlan(best);
+    }
+
+    public Plan solve(long timeLimit) throws Exception {
+        return solve(timeLimit, Runtime.getRuntime().availableProcessors());
+    }
+
+    private Plan makePlan(int[] order) {
+        List<Target> planOrder = new ArrayList<>();
+        List<Integer> moves = new ArrayList<>();
+        int totalMoves = 0;
+        boolean complete = true;
+        int keys = startKeys, chips = 0, from = 0;
+        for (int t : order) {
+            Target target = targets.get(t);
+            int d = distances[from][t][keys];
+            planOrder.add(target);
+            moves.add(d);
+            if (d == UNREACHABLE) complete = false;
+            else totalMoves += d;
+            keys |= keyBits[t];
+            if (isChip[t]) chips++;
+            if (chips >= chipsLeft) keys |= SOCKET_BIT;
+            from = t + 1;
+        }
+        int exit = bestExit(from, keys);
+        if (exit >= 0) {
+            planOrder.add(exits.get(exit));
+            moves.add(exitDistances[from][exit][keys]);
+            totalMoves += exitDistances[from][exit][keys];
+        }
+        else if (!exits.isEmpty()) complete = false;
+        return new Plan(planOrder, moves.stream().mapToInt(Integer::intValue).toArray(), totalMoves, complete);
+    }
+
+    private int bestExit(int from, int keys) {
+        int best = -1;
+        for (int e = 0; e < exits.size(); e++) {
+            int d = exitDistances[from][e][keys];
+            if (d != UNREACHABLE && (best < 0 || d < exitDistances[from][best][keys])) best = e;
+        }
+        return best;
+    }
+
+    /**
+     * The length of an order, with PENALTY for each leg that cannot be
+     * walked.
+     */
+    private long cost(int[] order) {
+        long cost = 0;
+        int keys = startKeys, chips = 0, from = 0;
+        for (int t : order) {
+            int d = distances[from][t][keys];
+            cost += d == UNREACHABLE ? PENALTY : d;
+            keys |= keyBits[t];
+            if (isChip[t]) chips++;
+            if (chips >= chipsLeft) keys |= SOCKET_BIT;
+            from = t + 1;
+        }
+        if (!exits.isEmpty()) {
+            int exit = bestExit(from, keys);
+            cost += exit < 0 ? PENALTY : exitDistances[from][exit][keys];
+        }
+        return cost;
+    }
+
+    /**
+     * Always go to the closest target that can be reached next.
+     */
+    private int[] nearestNeighbour() {
+        int n = targets.size();
+        int[] order = new int[n];
+        boolean[] used = new boolean[n];
+        int keys = startKeys, chips = 0, from = 0;
+        for (int i = 0; i < n; i++) {
+            int next = -1;
+            long nextDistance = Long.MAX_VALUE;
+            for (int t = 0; t < n; t++) {
+                if (used[t]) continue;
+                int d = distances[from][t][keys];
+                long cost = d == UNREACHABLE ? PENALTY : d;
+                if (cost < nextDistance) {
+                    next = t;
+                    nextDistance = cost;
+                }
+            }
+            order[i] = next;
+            used[next] = true;
+            keys |= keyBits[next];
+            if (isChip[next]) chips++;
+            if (chips >= chipsLeft) keys |= SOCKET_BIT;
+            from = next + 1;
+        }
+        return order;
+    }
+
+    /**
+     * Simulated annealing, starting from an order. Each step picks a target
+     * and one of its NEIGHBOURS closest targets, and either reverses the part
+     * of the order between them or moves the neighbour next to the target.
+     */
+    private class Annealer implements Callable<int[]> {
+        private static final int CHECK_TIME_INTERVAL = 1024;
+        private static final double END_TEMPERATURE = 0.05;
+
+        private final int[] order;
+        private final int[] indexOf;                                // indexOf[order[i]] == i
+        private final long timeLimit;
+        private final Random random;
+
+        @Override
+        public int[] call() {
+            int n = order.length;
+            int[] best = order.clone();
+            long bestCost = cost(order);
+            long currentCost = bestCost;
+            double startTemperature = Math.max(1, (double) Math.min(currentCost, PENALTY) / n);
+            double temperature = startTemperature;
+            long startTime = System.nanoTime();
+            long endTime = startTime + timeLimit * 1000000;
+            for (long step = 0; ; step++) {
+                if (step % CHECK_TIME_INTERVAL == 0) {
+                    long now = System.nanoTime();
+                    if (now >= endTime || Thread.currentThread().isInterrupted()) break;
+                    double progress = (double) (now - startTime) / (endTime - startTime);
+                    temperature = startTemperature * Math.pow(END_TEMPERATURE / startTemperature, progress);
+                }
+                int i = random.nextInt(n);
+                int[] close = neighbours[order[i]];
+                int j = indexOf[close[random.nextInt(close.length)]];
+                boolean reverse = random.nextBoolean();
+                int from, to;
+                if (reverse) {
+                    if (i < j) {
+                        from = i + 1;
+                        to = j;
+                    }
+                    else {
+                        from = j;
+                        to = i - 1;
+                    }
+                    if (from >= to) continue;
+                    reverse(from, to);
+                }
+                else {
+                    from = j;
+                    to = j > i ? i + 1 : i;
+                    if (from == to) continue;
+                    relocate(from, to);
+                }
+                long newCost = cost(order);
+                long delta = newCost - currentCost;
+                if (delta <= 0 || random.nextDouble() < Math.exp(-delta / temperature)) {
+                    currentCost = newCost;
+                    if (currentCost < bestCost) {
+                        bestCost = currentCost;
+                        System.arraycopy(order, 0, best, 0, n);
+                    }
+                }
+                else if (reverse) reverse(from, to);
+                else relocate(to, from);
+            }
+            return best;
+        }
+
+        private void reverse(int from, int to) {
+            while (from < to) {
+                int t = order[from];
+                order[from] = order[to];
+                order[to] = t;
+                indexOf[order[from]] = from++;
+                indexOf[order[to]] = to--;
+            }
+        }
+
+        private void relocate(int from, int to) {
+            int t = order[from];
+            if (from < to) System.arraycopy(order, from + 1, order, from, to - from);
+            else System.arraycopy(order, to, order, to + 1, from - to);
+            order[to] = t;
+            for (int i = Math.min(from, to); i <= Math.max(from, to); i++) indexOf[order[i]] = i;
+        }
+
+        Annealer(int[] order, long timeLimit, Random random) {
+            this.order = order.clone();
+            indexOf = new int[order.length];
+            for (int i = 0; i < order.length; i++) indexOf[order[i]] = i;
+            this.timeLimit = timeLimit;
+            this.random = random;
+        }
+    }
+
+    /**
+     * @return The tile Chip would interact with at a position, ignoring
+     * Chip himself and monsters
+     */
+    private Tile tileAt(int index) {
+        Tile tile = layerFG.get(index);
+        if (tile.isChip() || tile.isMonster()) tile = layerBG.get(index);
+        return tile;
+    }
+
+    private int doorBit(Tile tile) {
+        switch (tile) {
+            case DOOR_BLUE: return 1;
+            case DOOR_RED: return 1 << 1;
+            case DOOR_GREEN: return 1 << 2;
+            case DOOR_YELLOW: return 1 << 3;
+            case SOCKET: return SOCKET_BIT;
+            default: return 0;
+        }
+    }
+
+    private boolean canEnter(Direction direction, Tile tile) {
+        switch (tile) {
+            case DOOR_BLUE:
+            case DOOR_RED:
+            case DOOR_GREEN:
+            case DOOR_YELLOW:
+            case SOCKET: return true;
+            case WATER: return level.getBoots()[0] > 0;
+            case FIRE: return level.getBoots()[1] > 0;
+            case BOMB:
+            case TRAP: return false;
+            default: return chip.canEnter(direction, tile, level);
+        }
+    }
+
+    /**
+     * @return true if a position has been reached with some of the bits
+     * only, which was no further away
+     */
+    private static boolean isReached(int[] distance, int position, int bits) {
+        for (int subset = bits; ; subset = (subset - 1) & bits) {
+            if (distance[subset * 32 * 32 + position] != UNREACHABLE) return true;
+            if (subset == 0) return false;
+        }
+    }
+
+    /**
+     * Breadth-first search from a position over the tiles Chip can enter,
+     * with the key and socket bits needed so far as part of the state.
+     * @param distance Filled with the number of moves to each position with
+     *                 each set of bits, at keys * 32 * 32 + position. This
+     *                 is the shortest path that needs no other bits.
+     */
+    private void search(int from, int[] distance) {
+        Arrays.fill(distance, UNREACHABLE);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        distance[from] = 0;
+        queue.add(from);
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            int position = state % (32 * 32);
+            int bits = state / (32 * 32);
+            Tile tile = tileAt(position);
+            for (Direction direction : DIRECTIONS) {
+                if (Position.isAtEdge(position, direction)) continue;
+                int next = Position.move(position, direction);
+                if (!chip.canLeave(direction, tile, level)) continue;
+                Tile nextTile = tileAt(next);
+                if (!canEnter(direction, nextTile)) continue;
+                int nextBits = bits | doorBit(nextTile);
+                if (isReached(distance, next, nextBits)) continue;
+                int nextState = nextBits * 32 * 32 + next;
+                distance[nextState] = distance[state] + 1;
+                if (nextTile != EXIT) queue.add(nextState);
+            }
+        }
+        // A path that needs fewer bits can be walked with more
+        for (int bit = 1; bit < KEY_SETS; bit <<= 1) {
+            for (int keys = 0; keys < KEY_SETS; keys++) {
+                if ((keys & bit) == 0) continue;
+                for (int i = keys * 32 * 32, j = (keys ^ bit) * 32 * 32; i < (keys + 1) * 32 * 32; i++, j++) {
+                    distance[i] = Math.min(distance[i], distance[j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Find all targets of a level and the distances between them. The level
+     * is not modified, but it must not change while this constructor runs.
+     * @param level The level, in the state to plan from
+     */
+    public TSPSolver(Level level) {
+        this.level = level;
+        chip = level.getChip();
+        layerBG = level.getLayerBG();
+        layerFG = level.getLayerFG();
+        start = chip.getIndex();
+        chipsLeft = level.getChipsLeft();
+        int keys = 0;
+        for (int i = 0; i < Tile.NUM_KEYS; i++) if (level.getKeys()[i] > 0) keys |= 1 << i;
+        if (chipsLeft <= 0) keys |= SOCKET_BIT;
+        startKeys = keys;
+
+        int[] distance = new int[KEY_SETS * 32 * 32];
+        int allKeys = (KEY_SETS - 1) * 32 * 32;
+        search(start, distance);
+        for (int i = 0; i < 32 * 32; i++) {
+            Tile tile = tileAt(i);
+            if (tile == CHIP || tile == KEY_BLUE || tile == KEY_RED || tile == KEY_GREEN || tile == KEY_YELLOW) {
+                if (distance[allKeys + i] == UNREACHABLE) unreachable.add(new Target(new Position(i), tile));
+                else targets.add(new Target(new Position(i), tile));
+            }
+            else if (tile == EXIT) exits.add(new Target(new Position(i), tile));
+        }
+
+        int n = targets.size();
+        keyBits = new int[n];
+        isChip = new boolean[n];
+        for (int t = 0; t < n; t++) {
+            keyBits[t] = targets.get(t).keyBit();
+            isChip[t] = targets.get(t).tile == CHIP;
+        }
+        distances = new int[n + 1][n][KEY_SETS];
+        exitDistances = new int[n + 1][exits.size()][KEY_SETS];
+        for (int from = 0; from <= n; from++) {
+            if (from > 0) search(targets.get(from - 1).position.getIndex(), distance);
+            for (int bits = 0; bits < KEY_SETS; bits++) {
+                for (int t = 0; t < n; t++) {
+                    distances[from][t][bits] = distance[bits * 32 * 32 + targets.get(t).position.getIndex()];
+                }
+                for (int e = 0; e < exits.size(); e++) {
+                    exitDistances[from][e][bits] = distance[bits * 32 * 32 + exits.get(e).position.getIndex()];
+                }
+            }
+        }
+
+        neighbours = new int[n][];
+        for (int i = 0; i < n; i++) {
+            int t = i;
+            int[][] fromT = distances[t + 1];
+            neighbours[t] = IntStream.range(0, n).filter(u -> u != t).boxed()
+                .sorted(Comparator.comparingInt(u -> fromT[u][KEY_SETS - 1])).limit(NEIGHBOURS)
+                .mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+}
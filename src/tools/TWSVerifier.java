@@ -0,0 +1,191 @@
+package tools;
+
+import emulator.Solution;
+import game.Direction;
+import game.Level;
+import io.DatParser;
+import io.TWSReader;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks every solution in a tws file against its levelset without a GUI.
+ * <p>
+ * Each level is played on its own Level object, with the levels spread over
+ * all cores. A solution passes if Chip is on the exit after its moves,
+ * followed by up to MAX_WAITS waits for slides at the end of the level.
+ * </p>
+ * <p>
+ * Usage: java tools.TWSVerifier levelset.dat solutions.tws [report.json] [threads]
+ * </p>
+ */
+public class TWSVerifier {
+
+    public static final String PASS = "pass", FAIL = "fail", ERROR = "error";
+    private static final int MAX_WAITS = 100;
+
+    private final DatParser dat;
+    private final TWSReader twsReader;
+    private final int numThreads;
+
+    public static class Result {
+        public final int levelNumber;
+        public final String title;
+        public final String result;
+        public final int ticks;
+        public final double efficiency;
+        public final long nanoTime;
+        public final String error;
+
+        Result(int levelNumber, String title, String result, int ticks, double efficiency, long nanoTime, String error) {
+            this.levelNumber = levelNumber;
+            this.title = title;
+            this.result = result;
+            this.ticks = ticks;
+            this.efficiency = efficiency;
+            this.nanoTime = nanoTime;
+            this.error = error;
+        }
+
+        public boolean passed() {
+            return result.equals(PASS);
+        }
+
+        public JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("level", levelNumber);
+            json.put("title", title);
+            json.put("result", result);
+            json.put("ticks", ticks);
+            json.put("efficiency", efficiency);
+            json.put("timeMs", nanoTime / 1e6);
+            if (error != null) json.put("error", error);
+            return json;
+        }
+    }
+
+    /**
+     * Verify the solution of a single level. This is safe to call from
+     * several threads at once.
+     * @param levelNumber The level number
+     * @return The result
+     */
+    public Result verify(int levelNumber) {
+        long startTime = System.nanoTime();
+        String title = "";
+        try {
+            title = titleString(dat.getTitle(levelNumber));
+            Solution solution = twsReader.readSolution(levelNumber, dat.getPassword(levelNumber));
+            Level level = dat.parseLevel(levelNumber, solution.rngSeed, solution.step);
+            solution.loadMoves(level);
+            for (int waits = 0; waits < MAX_WAITS && !level.getChip().isDead(); waits++) {
+                level.tick(Level.WAIT, new Direction[] {});
+            }
+            return new Result(levelNumber, title, level.isCompleted() ? PASS : FAIL, level.getTickNumber(),
+                              solution.efficiency, System.nanoTime() - startTime, null);
+        }
+        catch (Exception e) {
+            return new Result(levelNumber, title, ERROR, 0, 0, System.nanoTime() - startTime, String.valueOf(e.getMessage()));
+        }
+    }
+
+    /**
+     * Verify every level of the levelset.
+     * @return The results, in level order
+     */
+    public List<Result> verifyAll() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (int i = 1; i < dat.lastLevel(); i++) {
+                final int levelNumber = i;
+                futures.add(executor.submit(() -> verify(levelNumber)));
+            }
+            List<Result> results = new ArrayList<>(futures.size());
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                }
+                catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+            return results;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public static JSONObject report(String levelset, String tws, int numThreads, List<Result> results, long nanoTime) {
+        JSONArray levels = new JSONArray();
+        int passed = 0;
+        for (Result r : results) {
+            levels.add(r.toJSON());
+            if (r.passed()) passed++;
+        }
+        JSONObject json = new JSONObject();
+        json.put("levelset", levelset);
+        json.put("tws", tws);
+        json.put("threads", numThreads);
+        json.put("timeMs", nanoTime / 1e6);
+        json.put("passed", passed);
+        json.put("failed", results.size() - passed);
+        json.put("levels", levels);
+        return json;
+    }
+
+    private static String titleString(byte[] title) {
+        if (title == null) return "";
+        int length = title.length;
+        if (length > 0 && title[length - 1] == 0) length--;
+        return new String(title, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    public TWSVerifier(DatParser dat, TWSReader twsReader, int numThreads) {
+        this.dat = dat;
+        this.twsReader = twsReader;
+        this.numThreads = numThreads;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: java tools.TWSVerifier levelset.dat solutions.tws [report.json] [threads]");
+            System.exit(2);
+        }
+        int numThreads = args.length >= 4 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        TWSVerifier verifier = new TWSVerifier(new DatParser(new File(args[0])), new TWSReader(new File(args[1])), numThreads);
+
+        long startTime = System.nanoTime();
+        List<Result> results = verifier.verifyAll();
+        long nanoTime = System.nanoTime() - startTime;
+
+        int passed = 0;
+        for (Result r : results) {
+            if (r.passed()) passed++;
+            else System.out.println(r.result + " " + r.levelNumber + " " + r.title + (r.error == null ? "" : ": " + r.error));
+        }
+        System.out.printf("%d/%d levels passed in %.2f s%n", passed, results.size(), nanoTime / 1e9);
+
+        if (args.length >= 3) {
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(args[2]), StandardCharsets.UTF_8)) {
+                out.write(report(args[0], args[1], numThreads, results, nanoTime).toJSONString());
+            }
+        }
+        System.exit(passed == results.size() ? 0 : 1);
+    }
+
+}
@@ -16,6 +16,8 @@ import java.util.RandomAccess;
  */
 public class ByteList implements Iterable<Byte>, RandomAccess, Serializable {
     
+    // The computed id of the class when states were saved as serialized objects, so those files still load
+    private static final long serialVersionUID = -2991299199630240030L;
     private static final int INITIAL_CAPACITY = 200;
     
     private byte[] bytes = new byte[INITIAL_CAPACITY];
@@ -96,6 +98,15 @@ public class ByteList implements Iterable<Byte>, RandomAccess, Serializable {
      */
     public ByteList(){};
     
+    /**
+     * Constructs a list containing the specified bytes.
+     * @param bytes The bytes, which are copied
+     */
+    public ByteList(byte[] bytes){
+        this(Arrays.copyOf(bytes, Math.max(INITIAL_CAPACITY, bytes.length * 2)), bytes.length,
+             Math.max(INITIAL_CAPACITY, bytes.length * 2));
+    }
+    
     // Constructor used for cloning
     private ByteList(byte[] moves, int size, int capacity){
         this.bytes = moves;
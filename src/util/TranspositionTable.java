@@ -0,0 +1,113 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A set of 64 bit state hashes, such as SaveState.getStateHash(), for
+ * remembering which states a search has already seen. Any number of threads
+ * can use it at once without locking.
+ * <p>
+ * The table has a fixed size. Each hash can go in one of BUCKET_SIZE slots,
+ * which share a cache line. If they are all taken, the new hash replaces
+ * one of them, so when the table is full it starts to forget old states
+ * instead of growing. A search using it may then visit a state twice, but
+ * it is never told that a new state has been seen before, apart from hash
+ * collisions.
+ * </p>
+ */
+public class TranspositionTable {
+
+    private static final int BUCKET_SIZE = 8;
+    private static final long EMPTY = 0;
+
+    private final AtomicLongArray table;
+    private final int bucketMask;
+    private final AtomicLong size = new AtomicLong(0);
+    private final AtomicLong replaced = new AtomicLong(0);
+
+    /**
+     * Add a hash to the table.
+     * @param hash The hash of a state
+     * @return true if the hash was not in the table
+     */
+    public boolean add(long hash) {
+        if (hash == EMPTY) hash = 1;
+        int bucket = bucket(hash);
+        for (int i = bucket; i < bucket + BUCKET_SIZE; i++) {
+            long value = table.get(i);
+            while (value == EMPTY) {
+                if (table.compareAndSet(i, EMPTY, hash)) {
+                    size.incrementAndGet();
+                    return true;
+                }
+                value = table.get(i);
+            }
+            if (value == hash) return false;
+        }
+        table.set(bucket + (int) (hash >>> 61), hash);
+        replaced.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @param hash The hash of a state
+     * @return true if the hash is in the table
+     */
+    public boolean contains(long hash) {
+        if (hash == EMPTY) hash = 1;
+        int bucket = bucket(hash);
+        for (int i = bucket; i < bucket + BUCKET_SIZE; i++) {
+            long value = table.get(i);
+            if (value == hash) return true;
+            if (value == EMPTY) return false;
+        }
+        return false;
+    }
+
+    /**
+     * Remove all hashes. This must not be called while other threads are
+     * using the table.
+     */
+    public void clear() {
+        for (int i = 0; i < table.length(); i++) table.set(i, EMPTY);
+        size.set(0);
+        replaced.set(0);
+    }
+
+    /**
+     * @return The number of hashes in the table
+     */
+    public long size() {
+        return size.get();
+    }
+
+    /**
+     * @return The number of hashes that were forgotten to make space for
+     * new ones
+     */
+    public long getReplaced() {
+        return replaced.get();
+    }
+
+    public int capacity() {
+        return table.length();
+    }
+
+    private int bucket(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & bucketMask;
+    }
+
+    /**
+     * @param maxBytes The memory the table may use. The table takes the
+     *                 largest power of two number of slots that fits, but
+     *                 at least one bucket and at most 2^30 slots.
+     */
+    public TranspositionTable(long maxBytes) {
+        long slots = Long.highestOneBit(Math.max(maxBytes / Long.BYTES, BUCKET_SIZE));
+        int capacity = (int) Math.min(slots, 1 << 30);
+        table = new AtomicLongArray(capacity);
+        bucketMask = (capacity - 1) & -BUCKET_SIZE;
+    }
+
+}
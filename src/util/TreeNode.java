@@ -8,8 +8,9 @@ import java.util.List;
 
 public class TreeNode<T> implements Serializable {
     
-    private transient T data;
+    private transient volatile T data;
     private transient TreeNode<T> parent;
+    private transient int depth;
     
     public T getData(){
         return data;
@@ -38,13 +39,11 @@ public class TreeNode<T> implements Serializable {
         return list;
     }
     
+    /**
+     * @return The number of nodes in the history of this node, including
+     * itself. The root has depth 1.
+     */
     public int depth() {
-        TreeNode<T> state = this;
-        int depth = 1;
-        while (state.hasParent()) {
-            state = state.getParent();
-            depth++;
-        }
         return depth;
     }
     
@@ -52,7 +51,7 @@ public class TreeNode<T> implements Serializable {
         LinkedList<TreeNode<T>> history = getHistory();
         out.writeInt(history.size());
         for (TreeNode<T> node : history) {
-            out.writeObject(node.data);
+            out.writeObject(node.getData());
         }
     }
     
@@ -64,11 +63,13 @@ public class TreeNode<T> implements Serializable {
         }
         this.data = node.data;
         this.parent = node.parent;
+        this.depth = node.depth;
     }
     
     public TreeNode(T object, TreeNode<T> parent){
         this.parent = parent;
         this.data = object;
+        this.depth = parent == null ? 1 : parent.depth + 1;
     }
     
 }